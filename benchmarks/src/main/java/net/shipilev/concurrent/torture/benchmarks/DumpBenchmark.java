@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.io.Files;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrent.torture.Measurement;
+import net.shipilev.concurrent.torture.Options;
+import net.shipilev.concurrent.torture.ResultPublisher;
+import net.shipilev.concurrent.torture.ResultWriter;
+import net.shipilev.concurrent.torture.tests.volatiles.ReadTwiceTest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisting the result: building the JAXB tree, marshalling it to disk, and rendering the report.
+ * This is the work the background writer does for every test; the report goes nowhere.
+ */
+@State(Scope.Thread)
+public class DumpBenchmark {
+
+    @Param({"6"})
+    public int iterations;
+
+    private File dir;
+    private ResultWriter writer;
+    private List<Measurement> measurements;
+    private ReadTwiceTest test;
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Files.createTempDir();
+        Options opts = new Options(new String[]{"-r", dir.getAbsolutePath()});
+        opts.parse();
+        PrintWriter nowhere = new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        writer = new ResultWriter(opts, null, new ResultPublisher(opts, dir.getAbsolutePath(), nowhere));
+
+        test = new ReadTwiceTest();
+        measurements = new ArrayList<Measurement>();
+        for (int i = 0; i < iterations; i++) {
+            Multiset<Long> states = HashMultiset.create();
+            for (long s = 0; s < 8; s++) {
+                states.add(s << 40, 1000 + i);
+            }
+            measurements.add(new Measurement(i < iterations - 1, 1000, states));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        writer.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public Result dump() {
+        return writer.dump(test, measurements);
+    }
+
+}
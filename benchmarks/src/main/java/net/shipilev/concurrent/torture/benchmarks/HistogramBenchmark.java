@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.Runner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Recording the observed state: marshalling it to long, and inserting into histogram.
+ */
+@State(Scope.Thread)
+public class HistogramBenchmark {
+
+    /**
+     * Number of distinct states the test produces.
+     */
+    @Param({"1", "4", "64"})
+    public int distinct;
+
+    private byte[][] states;
+    private Multiset<Long> set;
+    private int index;
+
+    @Setup
+    public void setup() {
+        states = new byte[distinct][];
+        for (int i = 0; i < distinct; i++) {
+            states[i] = new byte[8];
+            states[i][0] = (byte) i;
+        }
+        set = HashMultiset.create();
+    }
+
+    @Benchmark
+    public long byteArrToLong() {
+        index = (index + 1) % distinct;
+        return Runner.byteArrToLong(states[index]);
+    }
+
+    @Benchmark
+    public int insert() {
+        index = (index + 1) % distinct;
+        return set.add(Runner.byteArrToLong(states[index])) ? 1 : 0;
+    }
+
+}
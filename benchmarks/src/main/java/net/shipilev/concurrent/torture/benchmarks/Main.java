@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the harness benchmarks under several thread counts.
+ *
+ * Handoff benchmarks have their thread counts fixed by the protocol, and are run once;
+ * the rest are run with 1, 2, 4, and all available threads. All the usual JMH options
+ * are accepted, and applied to every run.
+ */
+public class Main {
+
+    private static final String HANDOFFS = ".*HandoffBenchmark.*";
+    private static final String OTHERS = ".*(Permutation|Histogram|Dump)Benchmark.*";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+
+        new Runner(new OptionsBuilder().parent(cmdOptions).include(HANDOFFS).build()).run();
+
+        for (int threads : threadCounts()) {
+            ChainedOptionsBuilder b = new OptionsBuilder().parent(cmdOptions).include(OTHERS).threads(threads);
+            new Runner(b.build()).run();
+        }
+    }
+
+    private static List<Integer> threadCounts() {
+        int max = Runtime.getRuntime().availableProcessors();
+        List<Integer> counts = new ArrayList<Integer>();
+        for (int t = 1; t < max && t <= 4; t *= 2) {
+            counts.add(t);
+        }
+        counts.add(max);
+        return counts;
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import net.shipilev.concurrent.torture.util.XorShift;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-stride reshuffle used to randomize the access order within the stride.
+ */
+@State(Scope.Thread)
+public class PermutationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int loops;
+
+    private int[] indices;
+    private long rnd;
+
+    @Setup
+    public void setup() {
+        indices = new int[loops];
+        for (int i = 0; i < loops; i++) {
+            indices[i] = i;
+        }
+        rnd = XorShift.seed(42, 0);
+    }
+
+    @Benchmark
+    public int[] shuffle() {
+        rnd = XorShift.shuffle(indices, rnd);
+        return indices;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import net.shipilev.concurrent.torture.engine.SingleSharedStateHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Stride handoff through {@link SingleSharedStateHolder}, following the protocol of
+ * {@link net.shipilev.concurrent.torture.engine.OneActorOneObserverEngine}.
+ *
+ * Every role method waits for its handoff once; throughput gives the handoff rate,
+ * sample time gives the handoff latency distribution.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class SingleHandoffBenchmark {
+
+    @Param({"10"})
+    public int loops;
+
+    @Param({"false", "true"})
+    public boolean padded;
+
+    @Param({"false", "true"})
+    public boolean ordered;
+
+    private SingleSharedStateHolder<Object> holder;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        holder = SingleSharedStateHolder.create(padded, ordered);
+    }
+
+    @Benchmark
+    @Group("single")
+    @GroupThreads(1)
+    public Object[] injector(Control control) {
+        Object[] stride = new Object[loops];
+        while (holder.getCurrent() != null) {
+            if (control.stopMeasurement) {
+                return stride;
+            }
+        }
+        holder.setCurrent(stride);
+        return stride;
+    }
+
+    @Benchmark
+    @Group("single")
+    @GroupThreads(1)
+    public Object[] actor(ActorState s, Control control) {
+        Object[] cur;
+        while ((cur = holder.getCurrent()) == null || cur == s.last) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        s.last = cur;
+        return cur;
+    }
+
+    @Benchmark
+    @Group("single")
+    @GroupThreads(1)
+    public Object[] observer(ObserverState s, Control control) {
+        Object[] cur;
+        while ((cur = holder.getCurrent()) == null || cur == s.last) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        s.last = cur;
+        holder.setCurrent(null);
+        return cur;
+    }
+
+    @State(Scope.Thread)
+    public static class ActorState {
+        Object[] last;
+    }
+
+    @State(Scope.Thread)
+    public static class ObserverState {
+        Object[] last;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.benchmarks;
+
+import net.shipilev.concurrent.torture.engine.TwoSharedStateHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * State handoff through {@link TwoSharedStateHolder}, following the protocol of
+ * {@link net.shipilev.concurrent.torture.engine.TwoActorsOneArbiterEngine}.
+ *
+ * Every role method waits for its handoff once; throughput gives the handoff rate,
+ * sample time gives the handoff latency distribution.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class TwoHandoffBenchmark {
+
+    @Param({"false", "true"})
+    public boolean padded;
+
+    @Param({"false", "true"})
+    public boolean ordered;
+
+    private TwoSharedStateHolder<Object> holder;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        holder = TwoSharedStateHolder.create(padded, ordered);
+        holder.setCurrent(new Object());
+    }
+
+    @Benchmark
+    @Group("two")
+    @GroupThreads(1)
+    public Object injector(Control control) {
+        while (holder.getT1() != null && holder.getT2() != null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        Object cur = new Object();
+        holder.setCurrent(cur);
+        return cur;
+    }
+
+    @Benchmark
+    @Group("two")
+    @GroupThreads(1)
+    public Object actor1(Actor1State s, Control control) {
+        Object cur;
+        while ((cur = holder.getCurrent()) == s.last) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        holder.setT1(cur);
+        s.last = cur;
+        return cur;
+    }
+
+    @Benchmark
+    @Group("two")
+    @GroupThreads(1)
+    public Object actor2(Actor2State s, Control control) {
+        Object cur;
+        while ((cur = holder.getCurrent()) == s.last) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        holder.setT2(cur);
+        s.last = cur;
+        return cur;
+    }
+
+    @Benchmark
+    @Group("two")
+    @GroupThreads(1)
+    public Object arbiter(Control control) {
+        Object s1;
+        while ((s1 = holder.getT1()) != holder.getT2() || s1 == null) {
+            if (control.stopMeasurement) {
+                return null;
+            }
+        }
+        holder.setT1(null);
+        holder.setT2(null);
+        return s1;
+    }
+
+    @State(Scope.Thread)
+    public static class Actor1State {
+        Object last;
+    }
+
+    @State(Scope.Thread)
+    public static class Actor2State {
+        Object last;
+    }
+
+}
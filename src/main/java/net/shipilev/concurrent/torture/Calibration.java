@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrent.torture.engine.Delays;
+import net.shipilev.concurrent.torture.tests.ConcurrencyTest;
+import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
+import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
+
+import javax.xml.bind.JAXBException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures the peak sample rates the harness itself is capable of on this host.
+ *
+ * The engines are run with no-op tests, for every wait strategy and stride size.
+ * The results are cached per host, and used to estimate harness efficiency for the actual tests.
+ * The peaks depend on the harness modes and the VM as well, so these are recorded along,
+ * and the tests run in the other modes or on the other VM are not compared with the peaks.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Calibration {
+
+    private static final int[] STRIDES = {1, 10, 100, 1000};
+    private static final boolean[] YIELDS = {false, true};
+
+    public static final String ONE_ACTOR = "OneActorOneObserver";
+    public static final String TWO_ACTORS = "TwoActorsOneArbiter";
+
+    /**
+     * Result environment properties the peaks depend on.
+     */
+    private static final String[] MODE_KEYS = {
+            "java.home",
+            "java.vm.version",
+            "harness.pad",
+            "harness.handoff",
+            "harness.executor",
+            "harness.reshuffle",
+            "harness.delay",
+            "harness.latency.sample",
+            "harness.search"
+    };
+    private static final String MODE_PREFIX = "mode.";
+
+    private final Properties peaks;
+
+    private Calibration(Properties peaks) {
+        this.peaks = peaks;
+    }
+
+    /**
+     * Loads the cached calibration for this host.
+     *
+     * @return calibration; empty if this host was not calibrated yet
+     */
+    public static Calibration load() {
+        Properties props = new Properties();
+        File file = getFile();
+        if (file.exists()) {
+            InputStream is = null;
+            try {
+                is = new FileInputStream(file);
+                props.load(is);
+            } catch (IOException e) {
+                System.err.println("WARNING: Unable to read calibration data from " + file + ": " + e.getMessage());
+            } finally {
+                close(is);
+            }
+        }
+        return new Calibration(props);
+    }
+
+    /**
+     * Runs the calibration, and caches the results for this host.
+     *
+     * @param opts options, time and warmup time are used per each configuration
+     * @return calibration
+     */
+    public static Calibration calibrate(Options opts) throws FileNotFoundException, JAXBException, ExecutionException, InterruptedException {
+        Properties props = new Properties();
+        for (Map.Entry<String, String> e : modeOf(opts).entrySet()) {
+            props.setProperty(MODE_PREFIX + e.getKey(), e.getValue());
+        }
+
+        Runner r = new Runner(opts);
+
+        System.out.printf("%20s %6s %6s %15s %15s\n", "Engine", "Wait", "Stride", "Strides/sec", "Samples/sec");
+        for (boolean shouldYield : YIELDS) {
+            for (int loops : STRIDES) {
+                Schedule schedule = new Schedule(loops, shouldYield, opts.shouldReshuffle(), Delays.NONE);
+
+                r.run(new NoopOneActorOneObserverTest(), opts.getWarmupTime(), schedule, opts.getSeed());
+                long samples = r.run(new NoopOneActorOneObserverTest(), opts.getTime(), schedule, opts.getSeed()).size();
+                record(props, ONE_ACTOR, loops, shouldYield, samples, opts.getTime());
+
+                r.run(new NoopTwoActorsOneArbiterTest(), opts.getWarmupTime(), schedule, opts.getSeed());
+                samples = r.run(new NoopTwoActorsOneArbiterTest(), opts.getTime(), schedule, opts.getSeed()).size();
+                record(props, TWO_ACTORS, loops, shouldYield, samples, opts.getTime());
+            }
+        }
+        r.close();
+
+        File file = getFile();
+        file.getParentFile().mkdirs();
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            props.store(os, "Harness calibration for " + getHost());
+            System.out.println();
+            System.out.println("Calibration data is saved to " + file);
+        } catch (IOException e) {
+            System.err.println("WARNING: Unable to save calibration data to " + file + ": " + e.getMessage());
+        } finally {
+            close(os);
+        }
+
+        return new Calibration(props);
+    }
+
+    /**
+     * Mode the calibration runs in: the VM is this one, delays are never injected, and the schedule
+     * is never searched. Window profiling runs the other engine, and is not compared with the peaks at all.
+     */
+    private static Map<String, String> modeOf(Options opts) {
+        Map<String, String> mode = new LinkedHashMap<String, String>();
+        mode.put("java.home", System.getProperty("java.home"));
+        mode.put("java.vm.version", System.getProperty("java.vm.version"));
+        mode.put("harness.pad", String.valueOf(opts.shouldPad()));
+        mode.put("harness.handoff", opts.getHandoff());
+        mode.put("harness.executor", opts.getExecutorMode().toString());
+        mode.put("harness.reshuffle", String.valueOf(opts.shouldReshuffle()));
+        mode.put("harness.delay", Delays.NONE.toString());
+        mode.put("harness.latency.sample", String.valueOf(opts.getLatencySampling()));
+        mode.put("harness.search", String.valueOf(false));
+        return mode;
+    }
+
+    private static void record(Properties props, String engine, int loops, boolean shouldYield, long samples, int time) {
+        double rate = samples * 1000.0 / time;
+        System.out.printf("%20s %6s %6d %15.0f %15.0f\n", engine, waitName(shouldYield), loops, rate / loops, rate);
+        props.setProperty(key(engine, loops, shouldYield), String.valueOf(rate));
+    }
+
+    /**
+     * Answers the peak sample rate for given engine configuration.
+     * If the stride size was not calibrated, answers the peak for the nearest calibrated stride.
+     *
+     * @param engine engine name
+     * @param loops stride size
+     * @param shouldYield wait strategy
+     * @param env environment of the result
+     * @return peak samples per second; null if not calibrated, or calibrated in the other mode or VM
+     */
+    public Double getPeak(String engine, int loops, boolean shouldYield, Map<String, String> env) {
+        for (String key : MODE_KEYS) {
+            String v = peaks.getProperty(MODE_PREFIX + key);
+            if (v == null || !v.equals(env.get(key))) {
+                return null;
+            }
+        }
+
+        int nearest = STRIDES[0];
+        for (int s : STRIDES) {
+            if (Math.abs(Math.log((double) s / loops)) < Math.abs(Math.log((double) nearest / loops))) {
+                nearest = s;
+            }
+        }
+        String v = peaks.getProperty(key(engine, nearest, shouldYield));
+        return (v == null) ? null : Double.valueOf(v);
+    }
+
+    public static String engineFor(ConcurrencyTest test) {
+        return (test instanceof TwoActorsOneArbiterTest) ? TWO_ACTORS : ONE_ACTOR;
+    }
+
+    private static String key(String engine, int loops, boolean shouldYield) {
+        return engine + "." + waitName(shouldYield) + "." + loops;
+    }
+
+    private static String waitName(boolean shouldYield) {
+        return shouldYield ? "yield" : "spin";
+    }
+
+    private static File getFile() {
+        return new File(System.getProperty("user.home") + "/.concurrency-torture/calibration-" + getHost() + ".properties");
+    }
+
+    private static String getHost() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static class NoopOneActorOneObserverTest implements OneActorOneObserverTest<Object> {
+        @Override
+        public Object newState() {
+            return new Object();
+        }
+
+        @Override
+        public void actor1(Object state) {
+        }
+
+        @Override
+        public void observe(Object state, byte[] result) {
+            result[0] = 0;
+        }
+
+        @Override
+        public int resultSize() {
+            return 1;
+        }
+    }
+
+    private static class NoopTwoActorsOneArbiterTest implements TwoActorsOneArbiterTest<Object> {
+        @Override
+        public Object newState() {
+            return new Object();
+        }
+
+        @Override
+        public void actor1(Object state) {
+        }
+
+        @Override
+        public void actor2(Object state) {
+        }
+
+        @Override
+        public void arbitrate(Object state, byte[] result) {
+            result[0] = 0;
+        }
+
+        @Override
+        public int resultSize() {
+            return 1;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application Class Data Sharing archive for the forked VMs.
+ *
+ * Every fork loads the same harness and library classes. The archive is bootstrapped by the
+ * first fork on a given JDK: that fork dumps the classes it has loaded at exit, and all the
+ * following forks map the archive instead of loading and verifying the classes from the jars.
+ * Dynamic archives are only available since JDK 13; older JDKs run without the archive. VM only
+ * archives the classes from jars, and refuses to map the archive when the class path has
+ * non-empty directories, e.g. the build output; such class paths run without the archive too.
+ *
+ * Archives live in ~/.concurrency-torture/cds, and are keyed by JDK and the class path,
+ * including the sizes and modification times of class path entries, so that a rebuilt harness
+ * gets a fresh archive.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class CdsArchive {
+
+    private static final Map<String, CdsArchive> ARCHIVES = new HashMap<String, CdsArchive>();
+
+    private final File archive;
+    private final File temp;
+
+    private boolean dumping;
+    private boolean failed;
+
+    private CdsArchive(File archive) {
+        this.archive = archive;
+        this.temp = new File(archive.getPath() + ".tmp");
+    }
+
+    /**
+     * Answers the archive for the JDK.
+     *
+     * @param javaHome JDK home
+     * @param javaVersion JDK version
+     * @param classPath class path of the forked VMs
+     * @return archive; null if JDK does not support dynamic archives, or class path has class directories
+     */
+    public static CdsArchive forJdk(String javaHome, String javaVersion, String classPath) {
+        if (ForkConfig.majorVersion(javaVersion) < 13) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(javaHome).append('\n').append(javaVersion).append('\n');
+        for (String entry : classPath.split(File.pathSeparator)) {
+            File f = new File(entry);
+            String[] children = f.isDirectory() ? f.list() : null;
+            if (children != null && children.length > 0) {
+                return null;
+            }
+            key.append(f.getAbsolutePath()).append(' ').append(f.length()).append(' ').append(f.lastModified()).append('\n');
+        }
+        String name = digest(key.toString());
+
+        synchronized (ARCHIVES) {
+            CdsArchive a = ARCHIVES.get(name);
+            if (a == null) {
+                File dir = new File(System.getProperty("user.home") + "/.concurrency-torture/cds");
+                dir.mkdirs();
+                a = new CdsArchive(new File(dir, name + ".jsa"));
+                ARCHIVES.put(name, a);
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Answers the flags for the next fork. Only one fork at a time dumps the archive,
+     * the others run without it until the archive is ready.
+     *
+     * @return flags
+     */
+    public synchronized List<String> acquire() {
+        if (archive.isFile()) {
+            return Collections.singletonList("-XX:SharedArchiveFile=" + archive.getPath());
+        }
+        if (dumping || failed) {
+            return Collections.emptyList();
+        }
+        dumping = true;
+        temp.delete();
+        return Arrays.asList("-XX:ArchiveClassesAtExit=" + temp.getPath(), "-Xlog:cds=off", "-Xlog:cds+dynamic=off");
+    }
+
+    /**
+     * Completes the fork. If the fork was dumping the archive, publishes the archive.
+     *
+     * @param flags flags answered by {@link #acquire()}
+     */
+    public synchronized void release(List<String> flags) {
+        if (!dumping || flags.isEmpty() || !flags.get(0).startsWith("-XX:ArchiveClassesAtExit")) {
+            return;
+        }
+        dumping = false;
+        if (temp.length() == 0 || !temp.renameTo(archive)) {
+            failed = true;
+            temp.delete();
+        }
+    }
+
+    private static String digest(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] bytes = md.digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", bytes[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
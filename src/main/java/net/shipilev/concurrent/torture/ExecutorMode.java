@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads to run the test roles on.
+ *
+ * The mode is given by the spec:
+ * <ul>
+ *     <li>{@code platform}: platform threads, one per role;</li>
+ *     <li>{@code virtual}: virtual threads, on the default carrier pool;</li>
+ *     <li>{@code carriers:N}: virtual threads, on at most N carriers.</li>
+ * </ul>
+ *
+ * Virtual threads are only available on the runtimes supporting them; they are reached
+ * reflectively, since the harness itself targets older runtimes. The carrier count is set via
+ * the scheduler system property, which the runtime reads only once, when the first virtual
+ * thread starts. Forked VMs get it on the command line; in this VM, the executor refuses to
+ * run on the scheduler which was already set up with the other carrier count.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ExecutorMode {
+
+    public static final ExecutorMode PLATFORM = new ExecutorMode("platform", 0);
+
+    public static final String PARALLELISM_PROPERTY = "jdk.virtualThreadScheduler.parallelism";
+
+    /**
+     * Carrier count the scheduler of this VM was set up with. This is the system property,
+     * since the isolated tests have their own copies of this class.
+     */
+    private static final String SCHEDULER_PROPERTY = "net.shipilev.concurrent.torture.carriers";
+
+    private final String kind;
+    private final int carriers;
+
+    private ExecutorMode(String kind, int carriers) {
+        this.kind = kind;
+        this.carriers = carriers;
+    }
+
+    /**
+     * Parses the executor spec.
+     *
+     * @param spec spec, see class description
+     * @return executor mode
+     * @throws IllegalArgumentException if spec is malformed, or the runtime does not support the mode
+     */
+    public static ExecutorMode parse(String spec) {
+        if ("platform".equals(spec)) {
+            return PLATFORM;
+        }
+
+        ExecutorMode mode;
+        if ("virtual".equals(spec)) {
+            mode = new ExecutorMode("virtual", 0);
+        } else if (spec.startsWith("carriers:")) {
+            int carriers;
+            try {
+                carriers = Integer.parseInt(spec.substring("carriers:".length()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Carrier count should be the number: " + spec);
+            }
+            if (carriers <= 0) {
+                throw new IllegalArgumentException("Carrier count should be positive: " + spec);
+            }
+            mode = new ExecutorMode("carriers", carriers);
+        } else {
+            throw new IllegalArgumentException("Executor should be platform, virtual, or carriers:N: " + spec);
+        }
+
+        if (virtualFactory() == null) {
+            throw new IllegalArgumentException("Virtual threads are not supported by this runtime: " + System.getProperty("java.version"));
+        }
+        return mode;
+    }
+
+    public boolean isVirtual() {
+        return this != PLATFORM;
+    }
+
+    /**
+     * @return number of carriers; 0 if not limited
+     */
+    public int getCarriers() {
+        return carriers;
+    }
+
+    /**
+     * Answers how many roles can run in parallel.
+     *
+     * @return number of CPUs available to roles
+     */
+    public int getParallelism() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return (carriers > 0) ? Math.min(carriers, cpus) : cpus;
+    }
+
+    /**
+     * Answers the flags the forked VM needs to run in this mode.
+     *
+     * @return flags
+     */
+    public List<String> getJvmArgs() {
+        if (carriers > 0) {
+            return Collections.singletonList("-D" + PARALLELISM_PROPERTY + "=" + carriers);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Creates the executor for the roles.
+     * Role threads are daemons, like virtual threads are: the role hung in the test which had
+     * timed out should not hold the VM from exiting.
+     *
+     * @return executor
+     * @throws IllegalStateException if virtual threads were already started in this VM with the other carrier count
+     */
+    public ExecutorService newExecutor() {
+        if (!isVirtual()) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "role");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        String requested = (carriers > 0) ? String.valueOf(carriers) : "default";
+        String current = System.getProperty(SCHEDULER_PROPERTY);
+        if (current == null) {
+            if (carriers > 0) {
+                System.setProperty(PARALLELISM_PROPERTY, requested);
+            }
+            System.setProperty(SCHEDULER_PROPERTY, requested);
+        } else if (!current.equals(requested)) {
+            throw new IllegalStateException("Virtual threads already run on " + current + " carriers in this VM, " +
+                    "and cannot be moved to " + requested + "; fork the tests instead");
+        }
+
+        try {
+            return (ExecutorService) virtualFactory().invoke(null);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Method virtualFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (carriers > 0) ? kind + ":" + carriers : kind;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * JVM configuration to fork the tests into: the JDK, and the flags.
+ *
+ * The matrix spec is the list of flag sets separated by ';', flags within the set are separated
+ * by spaces, e.g. {@code "-Xint; -XX:TieredStopAtLevel=1; -XX:-UseCompressedOops -XX:+UseSerialGC"}.
+ * The empty set stands for the default configuration.
+ *
+ * JDKs are given by their home directories. When both JDKs and flag sets are given, every
+ * flag set is run on every JDK. The JVM arguments of the parent VM are not passed to any
+ * configuration: these are not necessarily valid on other JDKs, and could conflict with the flag
+ * set, e.g. select another GC, which VM refuses to start with. JDK 9+ get the flags the harness
+ * needs to run.
+ *
+ * Every configuration has its own name, which is also the name of its results directory.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ForkConfig {
+
+    private final String name;
+    private final String javaHome;
+    private final String javaVersion;
+    private final List<String> jvmArgs;
+
+    public ForkConfig(String name, String javaHome, String javaVersion, List<String> jvmArgs) {
+        this.name = name;
+        this.javaHome = javaHome;
+        this.javaVersion = javaVersion;
+        this.jvmArgs = jvmArgs;
+    }
+
+    /**
+     * Builds the configurations.
+     *
+     * @param jdks JDK home directories; empty if tests should run on the parent JDK
+     * @param matrixSpec flag sets spec, see class description; null if parent flags should be used
+     * @return configurations; empty if neither JDKs, nor flag sets are given
+     * @throws IllegalArgumentException if JDK home is not valid, or the same flag set is given twice
+     */
+    public static List<ForkConfig> parse(List<String> jdks, String matrixSpec) {
+        List<ForkConfig> configs = new ArrayList<ForkConfig>();
+
+        List<List<String>> flagSets = parseMatrix(matrixSpec);
+        if (jdks.isEmpty() && flagSets.isEmpty()) {
+            return configs;
+        }
+
+        Set<String> names = new HashSet<String>();
+        for (int j = 0; j < Math.max(1, jdks.size()); j++) {
+            String home = null;
+            String version = System.getProperty("java.version");
+            String jdkName = null;
+            if (!jdks.isEmpty()) {
+                home = jdks.get(j);
+                version = readVersion(home);
+                jdkName = "jdk" + version.replaceAll("[^A-Za-z0-9+\\-.]", "_");
+            }
+
+            for (int f = 0; f < Math.max(1, flagSets.size()); f++) {
+                List<String> args = flagSets.isEmpty() ? Collections.<String>emptyList() : flagSets.get(f);
+
+                String name;
+                if (jdkName == null) {
+                    name = nameOf(args);
+                } else if (flagSets.isEmpty()) {
+                    name = jdkName;
+                } else {
+                    name = jdkName + "_" + nameOf(args);
+                }
+
+                String unique = name;
+                for (int c = 2; !names.add(unique); c++) {
+                    unique = name + "-" + c;
+                }
+                configs.add(new ForkConfig(unique, home, version, args));
+            }
+        }
+        return configs;
+    }
+
+    private static List<List<String>> parseMatrix(String spec) {
+        List<List<String>> sets = new ArrayList<List<String>>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return sets;
+        }
+
+        for (String set : spec.split(";", -1)) {
+            String trimmed = set.trim();
+            List<String> args = trimmed.isEmpty() ?
+                    Collections.<String>emptyList() :
+                    Arrays.asList(trimmed.split("\\s+"));
+            if (sets.contains(args)) {
+                throw new IllegalArgumentException("Duplicate JVM flag set in the matrix: \"" + trimmed + "\"");
+            }
+            sets.add(args);
+        }
+        return sets;
+    }
+
+    /**
+     * Reads the version of the JDK from its release file.
+     *
+     * @param home JDK home
+     * @return version
+     * @throws IllegalArgumentException if home does not have the java launcher
+     */
+    private static String readVersion(String home) {
+        File java = new File(home, "bin" + File.separator + "java");
+        File javaExe = new File(home, "bin" + File.separator + "java.exe");
+        if (!java.isFile() && !javaExe.isFile()) {
+            throw new IllegalArgumentException("Not a JDK home, no bin/java: " + home);
+        }
+
+        Properties release = new Properties();
+        try {
+            InputStream is = new FileInputStream(new File(home, "release"));
+            try {
+                release.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            // no release file, fall back to directory name
+        }
+
+        String version = release.getProperty("JAVA_VERSION");
+        if (version == null) {
+            return new File(home).getName();
+        }
+        return version.replace("\"", "");
+    }
+
+    /**
+     * Derives the file-system friendly name for the flag set.
+     */
+    private static String nameOf(List<String> args) {
+        if (args.isEmpty()) {
+            return "default";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String arg : args) {
+            if (sb.length() > 0) {
+                sb.append('_');
+            }
+            String a = arg;
+            while (a.startsWith("-")) {
+                a = a.substring(1);
+            }
+            sb.append(a.replaceAll("[^A-Za-z0-9+\\-.]", "_"));
+        }
+        return sb.toString();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return JDK home; null if the parent JDK should be used
+     */
+    public String getJavaHome() {
+        return javaHome;
+    }
+
+    public String getJavaVersion() {
+        return javaVersion;
+    }
+
+    public List<String> getJvmArgs() {
+        return jvmArgs;
+    }
+
+    /**
+     * @return true, if the configuration runs on the parent JDK
+     */
+    public boolean isParentJdk() {
+        return javaHome == null;
+    }
+
+    /**
+     * Answers the flags the harness needs on the JDK: JAXB accesses the class loader internals,
+     * which are closed on JDK 16+.
+     *
+     * @return flags
+     */
+    public List<String> getHarnessArgs() {
+        if (majorVersion(javaVersion) < 9) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList("--add-opens=java.base/java.lang=ALL-UNNAMED");
+    }
+
+    static int majorVersion(String version) {
+        String[] parts = version.split("[._+-]");
+        try {
+            int major = Integer.parseInt(parts[0]);
+            if (major == 1 && parts.length > 1) {
+                major = Integer.parseInt(parts[1]);
+            }
+            return major;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (javaHome != null) {
+            sb.append(javaVersion).append(" (").append(javaHome).append(")");
+        }
+        for (String arg : jvmArgs) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(arg);
+        }
+        if (sb.length() == 0) {
+            return "(default)";
+        }
+        return sb.toString();
+    }
+}
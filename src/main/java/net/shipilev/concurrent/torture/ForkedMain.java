@@ -42,6 +42,7 @@ public class ForkedMain {
             System.exit(1);
         }
 
+        // every test gets the fresh VM, there is nothing to isolate it from
         Runner r = new Runner(opts);
 
         for (Class<? extends OneActorOneObserverTest> test : filterTests(opts.getTestFilter(), OneActorOneObserverTest.class)) {
@@ -55,6 +56,16 @@ public class ForkedMain {
         }
 
         r.close();
+        exit();
+    }
+
+    /**
+     * Exits the forked VM once the results are written, even if the roles of the timed out test
+     * are still running: the parent would otherwise wait them out, and kill the VM.
+     */
+    private static void exit() {
+        System.out.flush();
+        System.exit(0);
     }
 
     private static <T> SortedSet<Class<? extends T>> filterTests(final String filter, Class<T> klass) {
@@ -66,6 +77,7 @@ public class ForkedMain {
                 new ConfigurationBuilder()
                         .filterInputsBy(new FilterBuilder().include("net.shipilev.concurrent.torture.*"))
                         .setUrls(ClasspathHelper.forClassLoader())
+                        .addUrls(ClasspathHelper.forJavaClassPath())
                         .setScanners(new SubTypesScanner(), new TypeAnnotationsScanner()));
 
         SortedSet<Class<? extends T>> s = new TreeSet<Class<? extends T>>(new Comparator<Class<? extends T>>() {
@@ -82,6 +94,9 @@ public class ForkedMain {
             if (Modifier.isAbstract(k.getModifiers())) {
                 continue;
             }
+            if (!Modifier.isPublic(k.getModifiers())) {
+                continue;
+            }
             s.add(k);
         }
 
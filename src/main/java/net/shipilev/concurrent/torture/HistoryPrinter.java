@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Answers the history queries over {@link ResultStore}, and prints the history sections
+ * of the reports.
+ *
+ * The queries are:
+ * <ul>
+ *     <li>{@code first:regexp}: when every state of the matching tests was first observed;</li>
+ *     <li>{@code trend:regexp}: sample rates and verdicts of the matching tests over time;</li>
+ *     <li>{@code counts:regexp}: outcome counts of the matching tests, summed over all runs
+ *     in every environment;</li>
+ *     <li>{@code forbidden:jdk}: tests which observed forbidden states on the JDK, given by
+ *     the major version, like 17, or the version prefix, like 1.8.0_3.</li>
+ * </ul>
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class HistoryPrinter {
+
+    /**
+     * Number of the latest runs shown in the reports.
+     */
+    private static final int REPORT_RUNS = 10;
+
+    private final ResultStore store;
+    private final SimpleDateFormat format;
+
+    public HistoryPrinter(ResultStore store) {
+        this.store = store;
+        this.format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    }
+
+    /**
+     * Answers the query.
+     *
+     * @param output output
+     * @param query query, see class description
+     * @throws IllegalArgumentException if query is malformed
+     * @throws IOException if store can not be read
+     */
+    public void query(PrintWriter output, String query) throws IOException {
+        int colon = query.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Query should be first:regexp, trend:regexp, counts:regexp, or forbidden:jdk: " + query);
+        }
+        String kind = query.substring(0, colon);
+        String arg = query.substring(colon + 1);
+
+        if ("first".equals(kind)) {
+            for (ResultStore.Entry e : store.find(arg)) {
+                for (String s : e.getNewStates()) {
+                    output.printf("%s  %-80s %20s  %s\n", date(e), e.getTest(), s, env(e));
+                }
+            }
+        } else if ("trend".equals(kind)) {
+            for (ResultStore.Entry e : store.find(arg)) {
+                output.printf("%s  %-80s %12.0f/sec  %-8s %s\n", date(e), e.getTest(), e.getRate(), e.getVerdict(), env(e));
+            }
+        } else if ("counts".equals(kind)) {
+            Map<String, Map<String, Long>> counts = new TreeMap<String, Map<String, Long>>();
+            Map<String, Integer> runs = new HashMap<String, Integer>();
+            for (ResultStore.Entry e : store.find(arg)) {
+                String key = e.getTest() + "  " + env(e);
+                Map<String, Long> c = counts.get(key);
+                if (c == null) {
+                    c = new TreeMap<String, Long>();
+                    counts.put(key, c);
+                    runs.put(key, 0);
+                }
+                for (Map.Entry<String, Long> s : store.readStates(e).entrySet()) {
+                    Long v = c.get(s.getKey());
+                    c.put(s.getKey(), (v == null ? 0 : v) + s.getValue());
+                }
+                runs.put(key, runs.get(key) + 1);
+            }
+            for (Map.Entry<String, Map<String, Long>> t : counts.entrySet()) {
+                output.println(t.getKey() + ", " + runs.get(t.getKey()) + " runs:");
+                for (Map.Entry<String, Long> s : t.getValue().entrySet()) {
+                    output.printf("%35s (%12d)\n", s.getKey(), s.getValue());
+                }
+            }
+        } else if ("forbidden".equals(kind)) {
+            Map<String, List<ResultStore.Entry>> byTest = new LinkedHashMap<String, List<ResultStore.Entry>>();
+            for (ResultStore.Entry e : store.findForbidden(arg)) {
+                List<ResultStore.Entry> l = byTest.get(e.getTest());
+                if (l == null) {
+                    l = new ArrayList<ResultStore.Entry>();
+                    byTest.put(e.getTest(), l);
+                }
+                l.add(e);
+            }
+            for (Map.Entry<String, List<ResultStore.Entry>> t : byTest.entrySet()) {
+                List<ResultStore.Entry> l = t.getValue();
+                output.printf("%-80s %5d runs, first %s, last %s  %s\n",
+                        t.getKey(), l.size(), date(l.get(0)), date(l.get(l.size() - 1)), env(l.get(l.size() - 1)));
+            }
+        } else {
+            throw new IllegalArgumentException("Query should be first:regexp, trend:regexp, counts:regexp, or forbidden:jdk: " + query);
+        }
+        output.flush();
+    }
+
+    /**
+     * Prints the history section of the test report.
+     *
+     * @param output output
+     * @param testName test name
+     */
+    public void printHtml(PrintWriter output, String testName) {
+        List<ResultStore.Entry> entries = store.find(Pattern.quote(testName));
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        output.println("<p>History: " + entries.size() + " runs since " + date(entries.get(0)) + "</p>");
+
+        output.println("<table>");
+        output.println("<tr><th>state</th><th>first observed</th><th>environment</th></tr>");
+        for (ResultStore.Entry e : entries) {
+            for (String s : e.getNewStates()) {
+                output.println("<tr><td>" + s + "</td><td>" + date(e) + "</td><td>" + env(e) + "</td></tr>");
+            }
+        }
+        output.println("</table>");
+
+        output.println("<table>");
+        output.println("<tr><th>run</th><th>samples/sec</th><th>verdict</th><th>environment</th></tr>");
+        for (ResultStore.Entry e : entries.subList(Math.max(0, entries.size() - REPORT_RUNS), entries.size())) {
+            output.println("<tr><td>" + date(e) + "</td><td>" + String.format("%.0f", e.getRate()) + "</td><td>" + e.getVerdict() + "</td><td>" + env(e) + "</td></tr>");
+        }
+        output.println("</table>");
+    }
+
+    private String date(ResultStore.Entry e) {
+        return format.format(new Date(e.getTimestamp()));
+    }
+
+    private String env(ResultStore.Entry e) {
+        SortedMap<String, String> env = store.getEnv(e.getEnv());
+        String args = env.get("jvm.args");
+        return env.get("java.version") + (args == null || args.isEmpty() ? "" : " " + args);
+    }
+
+}
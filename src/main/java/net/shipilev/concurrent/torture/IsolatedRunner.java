@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
+import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
+import net.shipilev.concurrent.torture.util.IsolatingClassLoader;
+
+import javax.xml.bind.JAXBException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the test with its own copy of {@link Runner} in the fresh class loader.
+ *
+ * This gives the test fresh JIT profiles and compiled code, which is otherwise only
+ * available by forking the separate VM per test. Only the hot code is loaded afresh: the results
+ * are published to the {@link ResultSink} shared by all isolated runs, which keeps the
+ * descriptions and the JAXB context set up once.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class IsolatedRunner {
+
+    /**
+     * Runs the test in the fresh class loader.
+     *
+     * @param opts options
+     * @param test test class
+     * @param output executor for result writers, shared between isolated runs to keep the output ordered
+     * @param sink sink to publish the results to, shared between isolated runs
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    public static void run(Options opts, Class<?> test, ExecutorService output, ResultSink sink) throws ExecutionException, InterruptedException {
+        ClassLoader loader = new IsolatingClassLoader(IsolatedRunner.class.getClassLoader(), ResultSink.class.getName());
+
+        Method entry;
+        try {
+            Class<?> klass = loader.loadClass(IsolatedRunner.class.getName());
+            entry = klass.getMethod("runInCurrentLoader", String[].class, String.class, ExecutorService.class, ResultSink.class);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try {
+            entry.invoke(null, opts.buildForkedArgs(opts.getResultDest()), test.getName(), output, sink);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw new ExecutionException(e.getCause());
+        }
+    }
+
+    /**
+     * Entry point within the isolated class loader.
+     * The arguments are passed as strings, since no harness classes but the sink are shared
+     * with the caller.
+     *
+     * @param args harness options
+     * @param testName test class name
+     * @param output executor for the result writer
+     * @param sink sink to publish the results to
+     */
+    public static void runInCurrentLoader(String[] args, String testName, ExecutorService output, ResultSink sink) throws IOException, JAXBException, ExecutionException, InterruptedException, ClassNotFoundException, IllegalAccessException, InstantiationException {
+        Options opts = new Options(args);
+        if (!opts.parse()) {
+            throw new IllegalArgumentException("Unable to parse options: " + Arrays.toString(args));
+        }
+
+        Class<?> test = Class.forName(testName, true, IsolatedRunner.class.getClassLoader());
+        Object instance = test.newInstance();
+
+        Runner r = new Runner(opts, output, sink);
+        if (instance instanceof OneActorOneObserverTest) {
+            r.run((OneActorOneObserverTest<?>) instance);
+        }
+        if (instance instanceof TwoActorsOneArbiterTest) {
+            r.run((TwoActorsOneArbiterTest<?>) instance);
+        }
+        r.close();
+    }
+
+}
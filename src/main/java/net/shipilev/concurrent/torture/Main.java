@@ -19,7 +19,8 @@ package net.shipilev.concurrent.torture;
 import net.shipilev.concurrent.torture.tests.ConcurrencyTest;
 import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
 import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
-import net.shipilev.concurrent.torture.util.InputStreamDrainer;
+import net.shipilev.concurrent.torture.util.OutputPump;
+import net.shipilev.concurrent.torture.util.ThreadDumps;
 import org.reflections.Reflections;
 import org.reflections.scanners.SubTypesScanner;
 import org.reflections.scanners.TypeAnnotationsScanner;
@@ -31,19 +32,46 @@ import javax.xml.bind.JAXBException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 public class Main {
 
+    /**
+     * Max number of roles in a test, each running in its own thread.
+     */
+    private static final int MAX_ROLES = 4;
+
+    /**
+     * Drains the output of all forks.
+     */
+    private static final OutputPump PUMP = new OutputPump();
+
+    /**
+     * Period to poll the forked VM for exit, ms.
+     */
+    private static final long EXIT_POLL_MS = 100;
+
+    /**
+     * Time for the hung forked VM to print its thread dump before it is killed, ms.
+     */
+    private static final long DUMP_GRACE_MS = 2000;
+
     public static void main(String[] args) throws ExecutionException, InterruptedException, IOException, IllegalAccessException, InstantiationException, JAXBException {
         System.out.println("Java Concurrency Torture Tests");
         System.out.println("---------------------------------------------------------------------------------");
@@ -53,85 +81,383 @@ public class Main {
             System.exit(1);
         }
 
+        if (opts.shouldCalibrate()) {
+            System.out.println("Calibrating the harness, " + opts.getTime() + "ms per configuration...");
+            System.out.println();
+
+            Calibration.calibrate(opts);
+            return;
+        }
+
+        if (opts.getQuery() != null) {
+            if (!ResultStore.exists(opts.getResultDest())) {
+                System.err.println("No history in " + opts.getResultDest());
+                System.exit(1);
+            }
+            try {
+                new HistoryPrinter(ResultStore.open(opts.getResultDest())).query(new PrintWriter(System.out), opts.getQuery());
+            } catch (IllegalArgumentException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (!opts.getDiffDirs().isEmpty()) {
+            int code;
+            try {
+                code = new ResultDiff(opts).diff(opts.getDiffDirs().get(0), opts.getDiffDirs().get(1));
+            } catch (IllegalArgumentException e) {
+                System.err.println("ERROR: " + e.getMessage());
+                code = 1;
+            }
+            System.exit(code);
+        }
+
+        if (!opts.getMergeSources().isEmpty()) {
+            new ResultMerger(opts).merge(opts.getMergeSources());
+            return;
+        }
+
         if (!opts.shouldParse()) {
-            if (opts.shouldFork()) {
+            String filter = opts.getTestFilter();
+            Rerun rerun = null;
+            if (opts.getRerun() != null) {
+                rerun = new Rerun(opts, resultDirs(opts));
+                filter = rerun.getFilter();
+                System.out.println("Re-running " + rerun.getTests().size() + " " + opts.getRerun() + " tests from " + opts.getResultDest());
+            }
+
+            // cached result is the one being re-run, it should not substitute the re-run
+            ResultCache cache = (opts.isIncremental() && rerun == null) ? new ResultCache(opts) : null;
+
+            System.out.println("Random seed is " + opts.getSeed() + ", use -seed to reproduce the access order");
+            if (opts.isOrderedHandoff()) {
+                System.out.println("Handing off the states with release-only stores");
+            }
+            if (opts.getDelays().isEnabled()) {
+                System.out.println("Injecting " + opts.getDelays() + " ns delays before actor and observer calls");
+            }
+            if (opts.getExecutorMode().isVirtual()) {
+                int carriers = opts.getExecutorMode().getCarriers();
+                System.out.println("Running the roles on virtual threads" + (carriers > 0 ? ", on " + carriers + " carriers" : ""));
+            }
+            if (opts.getWindow() > 0) {
+                System.out.println("Profiling the race window within " + opts.getWindow() + " ns around actor");
+            }
+            if (opts.shouldSearch()) {
+                System.out.println("Searching for the schedules exposing more states, in " + Search.ROUND_TIME + "ms rounds");
+            }
+
+            if (rerun != null) {
+                rerun.start();
+            }
+            long since = System.currentTimeMillis();
+
+            if (!opts.getForkConfigs().isEmpty()) {
+                System.out.println("Running in forked mode, for " + opts.getForkConfigs().size() + " JVM configurations...");
+                System.out.println();
+
+                runMatrix(opts, cache, filter, opts.getForkConfigs());
+            } else if (opts.shouldFork()) {
                 System.out.println("Running in forked mode...");
                 System.out.println();
 
-                for (Class<? extends ConcurrencyTest> test : filterTests(opts.getTestFilter(), OneActorOneObserverTest.class)) {
-                    runForked(opts, test);
+                for (Class<? extends ConcurrencyTest> test : filterTests(filter, OneActorOneObserverTest.class)) {
+                    runForked(opts, cache, test, null);
                 }
-                for (Class<? extends ConcurrencyTest> test : filterTests(opts.getTestFilter(), TwoActorsOneArbiterTest.class)) {
-                    runForked(opts, test);
+                for (Class<? extends ConcurrencyTest> test : filterTests(filter, TwoActorsOneArbiterTest.class)) {
+                    runForked(opts, cache, test, null);
                 }
             } else {
                 System.out.println("Running in embedded mode...");
                 System.out.println();
 
-                runAll(opts);
+                runAll(opts, cache, filter);
+            }
+
+            if (opts.shouldRecordHistory()) {
+                // fresh results only, before they are merged with the previous ones;
+                // all configurations share the store, their results are told apart by the environment
+                TextResultPrinter printer = new TextResultPrinter(opts);
+                ResultStore store = ResultStore.open(opts.getResultDest());
+                for (String dir : resultDirs(opts)) {
+                    store.ingest(dir, since, printer);
+                }
+            }
+
+            if (rerun != null) {
+                rerun.merge();
             }
         } else {
             System.out.println("Re-interpreting the results...");
-            System.out.println("Look at " + opts.getResultDest() + "/index.html for the results");
+            System.out.println("Look at " + opts.getResultDest() + "/" + (opts.getForkConfigs().isEmpty() ? "index.html" : "matrix.html") + " for the results");
             System.out.println();
         }
 
+        if (!opts.getForkConfigs().isEmpty()) {
+            for (ForkConfig config : opts.getForkConfigs()) {
+                new XMLtoHTMLResultPrinter(MatrixResultPrinter.resultDir(opts.getResultDest(), config), opts.getResultDest()).parse();
+            }
+            new MatrixResultPrinter(opts, opts.getForkConfigs()).parse();
+            return;
+        }
+
         XMLtoHTMLResultPrinter p = new XMLtoHTMLResultPrinter(opts);
         p.parse();
     }
 
-    private static void runForked(Options opts, Class<? extends ConcurrencyTest>  test) {
+    /**
+     * @return results dirs: the dir for every configuration, or just the results dir if there are no configurations
+     */
+    private static List<String> resultDirs(Options opts) {
+        List<String> dirs = new ArrayList<String>();
+        if (opts.getForkConfigs().isEmpty()) {
+            dirs.add(opts.getResultDest());
+        } else {
+            for (ForkConfig config : opts.getForkConfigs()) {
+                dirs.add(MatrixResultPrinter.resultDir(opts.getResultDest(), config));
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * Forks every test into every configuration, and prints the combined table per test.
+     * Configurations for the same test run in parallel, as long as there are enough CPUs for all
+     * their roles.
+     */
+    private static void runMatrix(final Options opts, final ResultCache cache, String filter, List<ForkConfig> configs) throws JAXBException, FileNotFoundException, InterruptedException {
+        for (ForkConfig config : configs) {
+            new File(MatrixResultPrinter.resultDir(opts.getResultDest(), config)).mkdirs();
+        }
+
+        MatrixResultPrinter printer = new MatrixResultPrinter(opts, configs);
+        PrintWriter pw = new PrintWriter(System.out, true);
+
+        int parallel = Math.max(1, Runtime.getRuntime().availableProcessors() / MAX_ROLES);
+        ExecutorService forks = Executors.newFixedThreadPool(Math.min(parallel, configs.size()));
+
+        List<Class<? extends ConcurrencyTest>> tests = new ArrayList<Class<? extends ConcurrencyTest>>();
+        tests.addAll(filterTests(filter, OneActorOneObserverTest.class));
+        tests.addAll(filterTests(filter, TwoActorsOneArbiterTest.class));
+
+        for (final Class<? extends ConcurrencyTest> test : tests) {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final ForkConfig config : configs) {
+                futures.add(forks.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        runForked(opts, cache, test, config);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    System.err.println(e.getCause().getMessage());
+                }
+            }
+
+            pw.println();
+            printer.print(pw, test.getName());
+            pw.println();
+        }
+
+        forks.shutdown();
+    }
+
+    /**
+     * Runs the test in the forked VM.
+     *
+     * @param opts options
+     * @param cache cache to reuse the results from; null if results should not be cached
+     * @param test test class
+     * @param config configuration to run the test in; null if the parent configuration should be used as is
+     */
+    private static void runForked(Options opts, ResultCache cache, Class<? extends ConcurrencyTest>  test, ForkConfig config) {
+        String resultDir = (config != null) ? MatrixResultPrinter.resultDir(opts.getResultDest(), config) : opts.getResultDest();
+        if (cache != null && cache.restore(test, config, resultDir)) {
+            return;
+        }
+        long since = System.currentTimeMillis();
+
+        CdsArchive cds = null;
+        if (opts.shouldUseCds()) {
+            boolean parent = (config == null || config.isParentJdk());
+            cds = CdsArchive.forJdk(
+                    parent ? System.getProperty("java.home") : config.getJavaHome(),
+                    parent ? System.getProperty("java.version") : config.getJavaVersion(),
+                    System.getProperty("java.class.path"));
+        }
+        List<String> cdsArgs = (cds != null) ? cds.acquire() : Collections.<String>emptyList();
+
         try {
-            String commandString = getSeparateExecutionCommand(opts, test.getName());
+            String commandString = getSeparateExecutionCommand(opts, test.getName(), config, cdsArgs);
 //            System.err.println("Invoking: " + commandString);
             Process p = Runtime.getRuntime().exec(commandString);
 
-            InputStreamDrainer errDrainer = new InputStreamDrainer(p.getErrorStream(), System.err);
-            InputStreamDrainer outDrainer = new InputStreamDrainer(p.getInputStream(), System.out);
+            String prefix = "[" + test.getSimpleName() + (config != null ? " @ " + config.getName() : "") + "] ";
+            File log = new File(resultDir + "/logs/" + test.getName() + ".log");
+            CountDownLatch drained = PUMP.attach(p, prefix, log);
 
-            errDrainer.start();
-            outDrainer.start();
+            long limit = opts.getForkTimeout();
+            if (!waitFor(p, limit)) {
+                System.err.println(prefix + "TIMEOUT: Forked VM had not completed within " + limit + " ms, killing it");
+                if (ThreadDumps.request(p)) {
+                    Thread.sleep(DUMP_GRACE_MS);
+                }
+                p.destroy();
+                p.waitFor();
+                drained.await();
+
+                if (new File(resultDir, test.getName() + ".xml").lastModified() / 1000 >= since / 1000) {
+                    // forked VM had recorded the result, possibly the timeout with its thread dump
+                    System.err.println(prefix + "Keeping the result recorded by the forked VM");
+                    return;
+                }
+
+                ResultWriter writer = new ResultWriter(opts, resultDir, null);
+                writer.timeout(test.getName(), "fork", limit, log);
+                writer.close();
+                return;
+            }
 
-            int ecode = p.waitFor();
+            int ecode = p.exitValue();
+            drained.await();
 
             if (ecode != 0) {
                 throw new IllegalStateException("WARNING: Forked process returned code: " + ecode);
             }
 
-            errDrainer.join();
-            outDrainer.join();
+            if (cache != null) {
+                cache.store(test, config, resultDir, since);
+            }
 
         } catch (IOException ex) {
             ex.printStackTrace();
         } catch (InterruptedException ex) {
             ex.printStackTrace();
+        } catch (JAXBException ex) {
+            ex.printStackTrace();
+        } finally {
+            if (cds != null) {
+                cds.release(cdsArgs);
+            }
+        }
+    }
+
+    /**
+     * Waits for the process to exit.
+     *
+     * @param p process
+     * @param limit time to wait, ms; 0 to wait forever
+     * @return true, if process had exited in time
+     * @throws InterruptedException
+     */
+    private static boolean waitFor(Process p, long limit) throws InterruptedException {
+        if (limit <= 0) {
+            p.waitFor();
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + limit;
+        while (true) {
+            try {
+                p.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                // still running
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(left, EXIT_POLL_MS));
         }
     }
 
-    private static void runAll(Options opts) throws FileNotFoundException, InstantiationException, IllegalAccessException, ExecutionException, InterruptedException, JAXBException {
+    private static void runAll(Options opts, ResultCache cache, String filter) throws FileNotFoundException, InstantiationException, IllegalAccessException, ExecutionException, InterruptedException, JAXBException {
         System.out.println("Running each test for " + opts.getTime() + "ms");
         System.out.println("Each test does " + opts.getLoops() + " internal loops");
         System.out.println("Look in results.html for the results");
         System.out.println();
 
-        Runner r = new Runner(opts);
+        // cached results are reported before anything runs, so that they do not interleave with the running tests
+        List<Class<? extends OneActorOneObserverTest>> tests1 = uncached(opts, cache, filterTests(filter, OneActorOneObserverTest.class));
+        List<Class<? extends TwoActorsOneArbiterTest>> tests2 = uncached(opts, cache, filterTests(filter, TwoActorsOneArbiterTest.class));
+        long since = System.currentTimeMillis();
+
+        if (opts.shouldIsolate()) {
+            ExecutorService output = ResultWriter.newExecutor();
+            ResultSink sink = new ResultPublisher(opts, opts.getResultDest());
 
-        for (Class<? extends OneActorOneObserverTest> test : filterTests(opts.getTestFilter(), OneActorOneObserverTest.class)) {
-            OneActorOneObserverTest<?> instance = test.newInstance();
-            r.run(instance);
+            for (Class<? extends ConcurrencyTest> test : tests1) {
+                IsolatedRunner.run(opts, test, output, sink);
+            }
+
+            for (Class<? extends ConcurrencyTest> test : tests2) {
+                IsolatedRunner.run(opts, test, output, sink);
+            }
+
+            ResultWriter.shutdown(output);
+        } else {
+            Runner r = new Runner(opts);
+
+            for (Class<? extends OneActorOneObserverTest> test : tests1) {
+                OneActorOneObserverTest<?> instance = test.newInstance();
+                r.run(instance);
+            }
+
+            for (Class<? extends TwoActorsOneArbiterTest> test : tests2) {
+                TwoActorsOneArbiterTest<?> instance = test.newInstance();
+                r.run(instance);
+            }
+
+            r.close();
         }
 
-        for (Class<? extends TwoActorsOneArbiterTest> test : filterTests(opts.getTestFilter(), TwoActorsOneArbiterTest.class)) {
-            TwoActorsOneArbiterTest<?> instance = test.newInstance();
-            r.run(instance);
+        if (cache != null) {
+            for (Class<?> test : tests1) {
+                cache.store(test, null, opts.getResultDest(), since);
+            }
+            for (Class<?> test : tests2) {
+                cache.store(test, null, opts.getResultDest(), since);
+            }
         }
+    }
 
-        r.close();
+    /**
+     * Reuses the cached results for the tests, and answers the tests which still need to run.
+     */
+    private static <T> List<Class<? extends T>> uncached(Options opts, ResultCache cache, SortedSet<Class<? extends T>> tests) {
+        List<Class<? extends T>> result = new ArrayList<Class<? extends T>>();
+        for (Class<? extends T> test : tests) {
+            if (cache == null || !cache.restore(test, null, opts.getResultDest())) {
+                result.add(test);
+            }
+        }
+        return result;
     }
 
     public static String getSeparateExecutionCommand(Options opts, String test) {
+        return getSeparateExecutionCommand(opts, test, null, Collections.<String>emptyList());
+    }
+
+    /**
+     * Builds the command line for the forked VM running the test.
+     *
+     * @param opts options
+     * @param test test class name
+     * @param config configuration to take the JDK and the JVM flags from, and to store the results for;
+     *               null if the parent configuration should be used as is
+     * @param harnessArgs additional JVM flags set by the harness
+     * @return command line
+     */
+    public static String getSeparateExecutionCommand(Options opts, String test, ForkConfig config, List<String> harnessArgs) {
         Properties props = System.getProperties();
-        String javaHome = (String) props.get("java.home");
+        String javaHome = (config != null && config.getJavaHome() != null) ? config.getJavaHome() : (String) props.get("java.home");
         String separator = File.separator;
         String osName = props.getProperty("os.name");
         boolean isOnWindows = osName.contains("indows");
@@ -154,15 +480,35 @@ public class Main {
         String javaExecutableString = javaExecutable.toString();
 
 
-        // else use same jvm args given to this runner
+        // use same jvm args given to this runner, unless the configuration has its own
         StringBuilder jvmArguments = new StringBuilder();
         RuntimeMXBean RuntimemxBean = ManagementFactory.getRuntimeMXBean();
         List<String> args = RuntimemxBean.getInputArguments();
 
-        for (String arg : args) {
+        if (config == null) {
+            for (String arg : args) {
+                jvmArguments.append(arg);
+                jvmArguments.append(' ');
+            }
+        }
+        for (String arg : harnessArgs) {
+            jvmArguments.append(arg);
+            jvmArguments.append(' ');
+        }
+        for (String arg : opts.getExecutorMode().getJvmArgs()) {
             jvmArguments.append(arg);
             jvmArguments.append(' ');
         }
+        if (config != null) {
+            for (String arg : config.getHarnessArgs()) {
+                jvmArguments.append(arg);
+                jvmArguments.append(' ');
+            }
+            for (String arg : config.getJvmArgs()) {
+                jvmArguments.append(arg);
+                jvmArguments.append(' ');
+            }
+        }
         if (jvmArguments.length() > 0) {
             jvmArguments.setLength(jvmArguments.length() - 1);
         }
@@ -184,7 +530,8 @@ public class Main {
         command.append(' ');
         command.append(ForkedMain.class.getName());
 
-        return command.toString() + " " + opts.buildForkedCmdLine() + " -t " + test;
+        String resultDir = (config != null) ? MatrixResultPrinter.resultDir(opts.getResultDest(), config) : opts.getResultDest();
+        return command.toString() + " " + opts.buildForkedCmdLine(resultDir) + " -t " + test;
     }
 
 
@@ -197,6 +544,7 @@ public class Main {
                 new ConfigurationBuilder()
                         .filterInputsBy(new FilterBuilder().include("net.shipilev.concurrent.torture.*"))
                         .setUrls(ClasspathHelper.forClassLoader())
+                        .addUrls(ClasspathHelper.forJavaClassPath())
                         .setScanners(new SubTypesScanner(), new TypeAnnotationsScanner()));
 
         SortedSet<Class<? extends T>> s = new TreeSet<Class<? extends T>>(new Comparator<Class<? extends T>>() {
@@ -214,6 +562,9 @@ public class Main {
             if (Modifier.isAbstract(k.getModifiers())) {
                 continue;
             }
+            if (!Modifier.isPublic(k.getModifiers())) {
+                continue;
+            }
             s.add(k);
         }
 
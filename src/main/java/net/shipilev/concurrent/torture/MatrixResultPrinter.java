@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.descr.Case;
+import net.shipilev.concurrency.torture.schema.descr.ExpectType;
+import net.shipilev.concurrency.torture.schema.descr.Test;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.State;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Prints the results of the same test under several fork configurations side by side.
+ * Results for every configuration are read from its own subdirectory of the results directory.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class MatrixResultPrinter {
+
+    private final String resultDir;
+    private final List<ForkConfig> configs;
+    private final TextResultPrinter descriptions;
+
+    public MatrixResultPrinter(Options opts, List<ForkConfig> configs) throws JAXBException, FileNotFoundException {
+        this.resultDir = opts.getResultDest();
+        this.configs = configs;
+        this.descriptions = new TextResultPrinter(opts);
+    }
+
+    /**
+     * @param resultDir results directory of the run
+     * @param config configuration
+     * @return results directory for configuration
+     */
+    public static String resultDir(String resultDir, ForkConfig config) {
+        return resultDir + File.separator + config.getName();
+    }
+
+    /**
+     * Prints the combined table for the test.
+     *
+     * @param output where to print
+     * @param testName test class name
+     */
+    public void print(PrintWriter output, String testName) {
+        Result[] results = read(testName);
+        Test test = descriptions.getDescription(testName);
+
+        int[] widths = new int[configs.size()];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = Math.max(12, configs.get(i).getName().length());
+        }
+
+        output.println("Matrix for " + testName + ":");
+        output.printf("%35s %20s", "Observed state", "Expectation");
+        for (int i = 0; i < widths.length; i++) {
+            output.printf(" %" + widths[i] + "s", configs.get(i).getName());
+        }
+        output.println();
+
+        for (String id : stateIds(test, results)) {
+            output.printf("%35s %20s", id, test != null ? TextResultPrinter.classify(test, id) : ExpectType.UNKNOWN);
+            for (int i = 0; i < widths.length; i++) {
+                output.printf(" %" + widths[i] + "s", results[i] != null ? String.valueOf(count(results[i], id)) : "-");
+            }
+            output.println();
+        }
+
+        output.printf("%56s", "Samples/sec");
+        for (int i = 0; i < widths.length; i++) {
+            output.printf(" %" + widths[i] + "s", rate(results[i]));
+        }
+        output.println();
+
+        output.printf("%56s", "Verdict");
+        for (int i = 0; i < widths.length; i++) {
+            output.printf(" %" + widths[i] + "s", verdict(test, results[i]));
+        }
+        output.println();
+        output.flush();
+    }
+
+    /**
+     * Writes the combined tables for all the tests to matrix.html.
+     *
+     * @throws FileNotFoundException
+     */
+    public void parse() throws FileNotFoundException {
+        PrintWriter output = new PrintWriter(resultDir + "/matrix.html");
+
+        output.println("<html>");
+        output.println("<head><title>Java Concurrency Torture matrix report</title></head>");
+        output.println("<body>");
+
+        output.println("<h1>Configurations</h1>");
+        output.println("<table>");
+        for (ForkConfig config : configs) {
+            output.println("<tr><td><a href='" + config.getName() + "/index.html'>" + config.getName() + "</a></td><td>" + config.getJavaVersion() + "</td><td>" + config + "</td></tr>");
+        }
+        output.println("</table>");
+
+        for (String testName : testNames()) {
+            Result[] results = read(testName);
+            Test test = descriptions.getDescription(testName);
+
+            output.println("<h2>" + testName + "</h2>");
+            output.println("<table>");
+            output.print("<tr><th>Observed state</th><th>Expectation</th>");
+            for (ForkConfig config : configs) {
+                output.print("<th>" + config.getName() + "</th>");
+            }
+            output.println("</tr>");
+
+            for (String id : stateIds(test, results)) {
+                ExpectType expect = (test != null) ? TextResultPrinter.classify(test, id) : ExpectType.UNKNOWN;
+                output.print("<tr><td>" + id + "</td><td>" + expect + "</td>");
+                for (Result r : results) {
+                    if (r == null) {
+                        output.print("<td align=center>-</td>");
+                    } else {
+                        long count = count(r, id);
+                        String color = (expect == ExpectType.UNKNOWN) ? "white" : XMLtoHTMLResultPrinter.selectHTMLColor(expect, count == 0);
+                        output.print("<td align=center bgColor=" + color + ">" + count + "</td>");
+                    }
+                }
+                output.println("</tr>");
+            }
+
+            output.print("<tr><td>Samples/sec</td><td></td>");
+            for (Result r : results) {
+                output.print("<td align=center>" + rate(r) + "</td>");
+            }
+            output.println("</tr>");
+
+            output.print("<tr><td>Verdict</td><td></td>");
+            for (Result r : results) {
+                output.print("<td align=center>" + verdict(test, r) + "</td>");
+            }
+            output.println("</tr>");
+            output.println("</table>");
+        }
+
+        output.println("</body>");
+        output.println("</html>");
+        output.close();
+    }
+
+    /**
+     * Answers the tests having the results in any configuration.
+     */
+    private SortedSet<String> testNames() {
+        SortedSet<String> names = new TreeSet<String>();
+        for (ForkConfig config : configs) {
+            String[] files = new File(resultDir(resultDir, config)).list(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(".xml");
+                }
+            });
+            if (files == null) {
+                continue;
+            }
+            for (String f : files) {
+                names.add(f.substring(0, f.length() - ".xml".length()));
+            }
+        }
+        return names;
+    }
+
+    private Result[] read(String testName) {
+        Result[] results = new Result[configs.size()];
+        for (int i = 0; i < results.length; i++) {
+            File f = new File(resultDir(resultDir, configs.get(i)), testName + ".xml");
+            if (!f.exists()) {
+                continue;
+            }
+            try {
+                FileInputStream is = new FileInputStream(f);
+                try {
+                    results[i] = descriptions.unmarshal(Result.class, is);
+                } finally {
+                    is.close();
+                }
+            } catch (Exception e) {
+                System.err.println("Cannot read " + f + ": " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Answers the states to show: all described states, then all other observed states.
+     */
+    private static List<String> stateIds(Test test, Result[] results) {
+        List<String> ids = new ArrayList<String>();
+        if (test != null) {
+            for (Case c : test.getCase()) {
+                for (String m : c.getMatch()) {
+                    if (!ids.contains(m)) {
+                        ids.add(m);
+                    }
+                }
+            }
+        }
+        Set<String> other = new TreeSet<String>();
+        for (Result r : results) {
+            if (r == null) {
+                continue;
+            }
+            for (State s : r.getState()) {
+                if (!ids.contains(s.getId())) {
+                    other.add(s.getId());
+                }
+            }
+        }
+        ids.addAll(other);
+        return ids;
+    }
+
+    private static long count(Result r, String id) {
+        for (State s : r.getState()) {
+            if (s.getId().equals(id)) {
+                return s.getCount();
+            }
+        }
+        return 0;
+    }
+
+    private static String rate(Result r) {
+        if (r == null) {
+            return "-";
+        }
+        Rate rate = r.getRate();
+        if (rate == null || rate.getTime() == 0) {
+            return "N/A";
+        }
+        return String.format("%.0f", rate.getSamples() * 1000.0 / rate.getTime());
+    }
+
+    private static String verdict(Test test, Result r) {
+        if (r == null) {
+            return "MISSING";
+        }
+        if (r.getTimeout() != null) {
+            return "TIMEOUT";
+        }
+        if (test == null) {
+            return "UNKNOWN";
+        }
+        return TextResultPrinter.isCorrect(test, r) ? "OK" : "FAILED";
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.util.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * States observed during a single iteration of the test.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Measurement {
+
+    private final boolean warmup;
+    private final long time;
+    private final Multiset<Long> states;
+    private final Map<String, LatencyHistogram> latencies;
+
+    public Measurement(boolean warmup, long time, Multiset<Long> states) {
+        this(warmup, time, states, Collections.<String, LatencyHistogram>emptyMap());
+    }
+
+    public Measurement(boolean warmup, long time, Multiset<Long> states, Map<String, LatencyHistogram> latencies) {
+        this.warmup = warmup;
+        this.time = time;
+        this.states = states;
+        this.latencies = latencies;
+    }
+
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @return iteration time, ms
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public Multiset<Long> getStates() {
+        return states;
+    }
+
+    /**
+     * @return handoff latencies sampled during the iteration, transition name -> histogram
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        return latencies;
+    }
+}
@@ -20,8 +20,12 @@ import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import joptsimple.OptionSpec;
+import net.shipilev.concurrent.torture.engine.Delays;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.Random;
 
 public class Options {
     private String resultDir;
@@ -30,10 +34,34 @@ public class Options {
     private int time;
     private int wtime;
     private int witers;
+    private int iters;
     private final String[] args;
     private boolean shouldYield;
     private boolean parse;
     private boolean shouldFork;
+    private boolean shouldSpecialize;
+    private boolean shouldIsolate;
+    private boolean calibrate;
+    private boolean shouldPad;
+    private String handoff;
+    private List<ForkConfig> forkConfigs;
+    private boolean shouldUseCds;
+    private int hangTimeout;
+    private boolean incremental;
+    private String cacheDir;
+    private long minSamples;
+    private String rerun;
+    private List<String> mergeSources;
+    private boolean shouldRecordHistory;
+    private String query;
+    private List<String> diffDirs;
+    private long seed;
+    private boolean shouldReshuffle;
+    private Delays delays;
+    private boolean shouldSearch;
+    private int window;
+    private int latencySampling;
+    private ExecutorMode executorMode;
 
     public Options(String[] args) {
         this.args = args;
@@ -64,12 +92,86 @@ public class Options {
         OptionSpec<Integer> witers = parser.accepts("witers", "Warmup iterations per test")
                 .withRequiredArg().ofType(int.class).describedAs("N").defaultsTo(5);
 
+        OptionSpec<Integer> iters = parser.accepts("iters", "Measurement iterations per test, the time per test is split between them")
+                .withRequiredArg().ofType(int.class).describedAs("N").defaultsTo(1);
+
         OptionSpec<Boolean> shouldYield = parser.accepts("yield", "Make yields in busyloops")
                 .withOptionalArg().ofType(boolean.class).defaultsTo(false);
 
         OptionSpec<Boolean> shouldFork = parser.accepts("f", "Should fork")
                 .withOptionalArg().ofType(boolean.class).defaultsTo(true);
 
+        OptionSpec<Boolean> shouldSpecialize = parser.accepts("specialize", "Generate dedicated runner classes per test")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<Boolean> shouldIsolate = parser.accepts("isolate", "Load each test into its own class loader, when not forking")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<Boolean> shouldPad = parser.accepts("pad", "Isolate the harness shared state in its own cache lines")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(true);
+
+        OptionSpec<String> handoff = parser.accepts("handoff", "Harness handoff stores: volatile, or ordered for release-only stores")
+                .withRequiredArg().ofType(String.class).describedAs("mode").defaultsTo("volatile");
+
+        OptionSpec<Long> seed = parser.accepts("seed", "Seed for the randomized access order; random if omitted")
+                .withRequiredArg().ofType(long.class).describedAs("N");
+
+        OptionSpec<Boolean> shouldReshuffle = parser.accepts("reshuffle", "Reshuffle the access order for every stride")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<String> delays = parser.accepts("delay", "Busy-spin delays before actor and observer calls: none, uniform:N, exp:N, or log:N, in nanoseconds")
+                .withRequiredArg().ofType(String.class).describedAs("spec").defaultsTo("none");
+
+        OptionSpec<Boolean> shouldSearch = parser.accepts("search", "Adapt the stride, wait strategy, reshuffling and delays to expose more distinct states")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<Integer> window = parser.accepts("window", "Profile the race window, sweeping observer offsets within N ns around actor; OneActorOneObserver tests only")
+                .withRequiredArg().ofType(int.class).describedAs("N").defaultsTo(0);
+
+        OptionSpec<Integer> latencySampling = parser.accepts("latencySample", "Record handoff latencies for every N-th published state; 0 disables. This is not free: the roles check the stamp on every state, and the stamped states read the clock")
+                .withRequiredArg().ofType(int.class).describedAs("N").defaultsTo(0);
+
+        OptionSpec<String> executorMode = parser.accepts("executor", "Threads to run the roles on: platform, virtual, or carriers:N for virtual threads on N carriers")
+                .withRequiredArg().ofType(String.class).describedAs("mode").defaultsTo("platform");
+
+        OptionSpec<String> jvmArgsMatrix = parser.accepts("jvmArgsMatrix", "Fork every test once per JVM flag set; sets are separated by ';', e.g. \"-Xint; -XX:TieredStopAtLevel=1\"")
+                .withRequiredArg().ofType(String.class).describedAs("sets");
+
+        OptionSpec<String> jdks = parser.accepts("jdks", "Fork every test into every JDK; homes are separated by '" + File.pathSeparator + "'")
+                .withRequiredArg().ofType(String.class).withValuesSeparatedBy(File.pathSeparatorChar).describedAs("homes");
+
+        OptionSpec<Boolean> shouldUseCds = parser.accepts("cds", "Share the harness classes between the forked VMs with the AppCDS archive, on JDK 13+")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<Integer> hangTimeout = parser.accepts("hangTimeout", "Give up on the test if its roles are still running this long after the run should have ended, record it as timed out, and move on; 0 waits forever")
+                .withRequiredArg().ofType(int.class).describedAs("ms").defaultsTo(60000);
+
+        OptionSpec<Boolean> incremental = parser.accepts("incremental", "Reuse the cached results of the tests, if neither test, nor harness, nor JVM, nor options have changed")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<String> cacheDir = parser.accepts("cacheDir", "Directory to cache the results in, with -incremental")
+                .withRequiredArg().ofType(String.class).describedAs("dir").defaultsTo("cache/");
+
+        OptionSpec<Long> minSamples = parser.accepts("minSamples", "Reuse the cached result with -incremental only if it has at least this many measured samples")
+                .withRequiredArg().ofType(long.class).describedAs("N").defaultsTo(1L);
+
+        OptionSpec<String> rerun = parser.accepts("rerun", "Re-run the tests selected by the previous results in the results dir, and merge the new counts into them: failed, or interesting for failed and the ones with known or unclassified states")
+                .withRequiredArg().ofType(String.class).describedAs("mode");
+
+        OptionSpec<String> merge = parser.accepts("merge", "Aggregate the result files, or directories of them, into the results dir, per environment, and exit; paths are separated by '" + File.pathSeparator + "'")
+                .withRequiredArg().ofType(String.class).withValuesSeparatedBy(File.pathSeparatorChar).describedAs("paths");
+
+        OptionSpec<Boolean> shouldRecordHistory = parser.accepts("history", "Record the results into the history store in the results dir, for queries and reports")
+                .withOptionalArg().ofType(boolean.class).defaultsTo(false);
+
+        OptionSpec<String> query = parser.accepts("query", "Query the history store in the results dir, and exit: first:regexp for first observed states, trend:regexp for sample rates, counts:regexp for outcome counts over all runs, forbidden:jdk for the tests with forbidden states")
+                .withRequiredArg().ofType(String.class).describedAs("query");
+
+        OptionSpec<String> diff = parser.accepts("diff", "Compare two results dirs, and exit with 0 if they are the same, 2 if they differ, or 3 if correctness differs; dirs are separated by '" + File.pathSeparator + "'")
+                .withRequiredArg().ofType(String.class).withValuesSeparatedBy(File.pathSeparatorChar).describedAs("dirA" + File.pathSeparator + "dirB");
+
+        parser.accepts("calibrate", "Measure the peak harness sample rates on this host, and exit");
+
         parser.accepts("h", "Print this help");
 
         OptionSet set;
@@ -92,17 +194,99 @@ public class Options {
         this.time = set.valueOf(time);
         this.wtime = set.valueOf(wtime);
         this.witers = set.valueOf(witers);
+        this.iters = set.valueOf(iters);
         this.testFilter = set.valueOf(testFilter);
         this.shouldYield = set.valueOf(shouldYield);
         this.shouldFork = set.valueOf(shouldFork);
+        this.shouldSpecialize = set.valueOf(shouldSpecialize);
+        this.shouldIsolate = set.valueOf(shouldIsolate);
+        this.shouldPad = set.valueOf(shouldPad);
+        this.seed = set.has(seed) ? set.valueOf(seed) : new Random().nextLong();
+        this.shouldReshuffle = set.valueOf(shouldReshuffle);
+        this.shouldSearch = set.valueOf(shouldSearch);
+        this.window = set.valueOf(window);
+        this.latencySampling = set.valueOf(latencySampling);
+        this.shouldUseCds = set.valueOf(shouldUseCds);
+        this.hangTimeout = set.valueOf(hangTimeout);
+        this.incremental = set.valueOf(incremental);
+        this.cacheDir = set.valueOf(cacheDir);
+        this.minSamples = set.valueOf(minSamples);
+        try {
+            this.delays = Delays.parse(set.valueOf(delays));
+            this.executorMode = ExecutorMode.parse(set.valueOf(executorMode));
+            this.handoff = set.valueOf(handoff);
+            this.forkConfigs = ForkConfig.parse(set.valuesOf(jdks), set.valueOf(jvmArgsMatrix));
+            if (!"volatile".equals(this.handoff) && !"ordered".equals(this.handoff)) {
+                throw new IllegalArgumentException("Unknown handoff mode: " + this.handoff);
+            }
+            this.rerun = set.valueOf(rerun);
+            if (this.rerun != null && !"failed".equals(this.rerun) && !"interesting".equals(this.rerun)) {
+                throw new IllegalArgumentException("Unknown rerun mode: " + this.rerun);
+            }
+            this.diffDirs = set.valuesOf(diff);
+            if (!this.diffDirs.isEmpty() && this.diffDirs.size() != 2) {
+                throw new IllegalArgumentException("Diff needs exactly two results dirs: " + this.diffDirs);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.err.println();
+            parser.printHelpOn(System.err);
+            return false;
+        }
         this.parse = set.has(parse);
+        this.calibrate = set.has("calibrate");
+        this.mergeSources = set.valuesOf(merge);
+        this.shouldRecordHistory = set.valueOf(shouldRecordHistory);
+        this.query = set.valueOf(query);
 
         return true;
     }
 
     public String buildForkedCmdLine() {
-        // omit -f, -p, -t
-        return "-r " + resultDir + " -loops " + loops + " -time " + time + " -wtime " + wtime + " -witers " + witers + " -yield " + shouldYield + " -f false";
+        return buildForkedCmdLine(resultDir);
+    }
+
+    public String buildForkedCmdLine(String resultDir) {
+        StringBuilder sb = new StringBuilder();
+        for (String arg : buildForkedArgs(resultDir)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(arg);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Answers the options for the forked or isolated runner, one argument per element,
+     * so that the values are passed as is, even with spaces.
+     *
+     * @param resultDir results dir for the runner
+     * @return arguments
+     */
+    public String[] buildForkedArgs(String resultDir) {
+        // omit -f, -p, -t, -jvmArgsMatrix, -jdks, -cds, -incremental, -cacheDir, -minSamples, -rerun, -history
+        return new String[] {
+                "-r", resultDir, "-loops", String.valueOf(loops), "-time", String.valueOf(time),
+                "-wtime", String.valueOf(wtime), "-witers", String.valueOf(witers), "-iters", String.valueOf(iters),
+                "-yield", String.valueOf(shouldYield), "-specialize", String.valueOf(shouldSpecialize),
+                "-isolate", String.valueOf(shouldIsolate), "-pad", String.valueOf(shouldPad),
+                "-handoff", handoff, "-seed", String.valueOf(seed), "-reshuffle", String.valueOf(shouldReshuffle),
+                "-delay", delays.toString(), "-search", String.valueOf(shouldSearch), "-window", String.valueOf(window),
+                "-latencySample", String.valueOf(latencySampling), "-executor", executorMode.toString(),
+                "-hangTimeout", String.valueOf(hangTimeout), "-f", "false",
+        };
+    }
+
+    /**
+     * Answers the options affecting the test outcomes, to key the cached results with.
+     * Warmup and iteration counts are included, since these define what the result covers.
+     * Iteration time, seed, timeouts and result dir are not included.
+     *
+     * @return options
+     */
+    public String buildResultKey() {
+        return "-wtime " + wtime + " -witers " + witers + " -iters " + iters + " -loops " + loops + " -yield " + shouldYield + " -f " + shouldFork + " -specialize " + shouldSpecialize + " -isolate " + shouldIsolate + " -pad " + shouldPad + " -handoff " + handoff + " -reshuffle " + shouldReshuffle + " -delay " + delays + " -search " + shouldSearch + " -window " + window + " -latencySample " + latencySampling + " -executor " + executorMode;
     }
 
     public int getLoops() {
@@ -125,6 +309,10 @@ public class Options {
         return witers;
     }
 
+    public int getIterations() {
+        return iters;
+    }
+
     public boolean shouldYield() {
         return shouldYield;
     }
@@ -140,4 +328,144 @@ public class Options {
     public boolean shouldFork() {
         return shouldFork;
     }
+
+    public boolean shouldSpecialize() {
+        return shouldSpecialize;
+    }
+
+    public boolean shouldIsolate() {
+        return shouldIsolate;
+    }
+
+    public boolean shouldCalibrate() {
+        return calibrate;
+    }
+
+    /**
+     * @return result files and directories to merge; empty if not merging
+     */
+    public List<String> getMergeSources() {
+        return mergeSources;
+    }
+
+    public boolean shouldRecordHistory() {
+        return shouldRecordHistory;
+    }
+
+    /**
+     * @return history query; null if not querying
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return results dirs to compare; empty if not comparing
+     */
+    public List<String> getDiffDirs() {
+        return diffDirs;
+    }
+
+    public boolean shouldPad() {
+        return shouldPad;
+    }
+
+    /**
+     * @return handoff mode, "volatile" or "ordered"
+     */
+    public String getHandoff() {
+        return handoff;
+    }
+
+    public boolean isOrderedHandoff() {
+        return "ordered".equals(handoff);
+    }
+
+    /**
+     * @return JVM configurations to fork every test into; empty if neither JDKs, nor flag sets are requested
+     */
+    public List<ForkConfig> getForkConfigs() {
+        return forkConfigs;
+    }
+
+    public boolean shouldUseCds() {
+        return shouldUseCds;
+    }
+
+    /**
+     * @return time to wait for the stopped roles to complete, ms; 0 if forever
+     */
+    public int getHangTimeout() {
+        return hangTimeout;
+    }
+
+    /**
+     * Answers how long the forked VM running a single test may take. The fork is given
+     * twice the hang timeout on top of the test time, so that the hung roles are normally
+     * caught, and reported by the fork itself.
+     *
+     * @return time to wait for the forked VM, ms; 0 if forever
+     */
+    public long getForkTimeout() {
+        if (hangTimeout <= 0) {
+            return 0;
+        }
+        return (long) witers * wtime + time + 2L * hangTimeout;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @return minimal number of measured samples in the cached result to reuse it
+     */
+    public long getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * @return rerun mode, "failed" or "interesting"; null if all tests should run
+     */
+    public String getRerun() {
+        return rerun;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean shouldReshuffle() {
+        return shouldReshuffle;
+    }
+
+    public Delays getDelays() {
+        return delays;
+    }
+
+    public boolean shouldSearch() {
+        return shouldSearch;
+    }
+
+    /**
+     * @return max observer offset to sweep when profiling the race window, ns; 0 if disabled
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return sample every N-th handoff for latency histograms; 0 if disabled
+     */
+    public int getLatencySampling() {
+        return latencySampling;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.ObjectFactory;
+import net.shipilev.concurrency.torture.schema.result.PhaseChange;
+import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrent.torture.util.Statistics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Detects the shifts in outcome distribution between consecutive iterations.
+ *
+ * The shift is reported when the iteration either exhibits the state never seen before,
+ * or its distribution differs from the previous iteration significantly, both statistically
+ * and in effect size. Huge sample counts make chi-square test sensitive to the tiniest
+ * fluctuations, hence the effect size threshold.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class PhaseChangeDetector {
+
+    private static final double ALPHA = 0.001;
+    private static final double MIN_CRAMER_V = 0.05;
+
+    public static List<PhaseChange> detect(List<Iteration> iterations) {
+        ObjectFactory factory = new ObjectFactory();
+        List<PhaseChange> changes = new ArrayList<PhaseChange>();
+
+        Set<String> seen = new HashSet<String>();
+        Map<String, Long> prev = null;
+        for (Iteration it : iterations) {
+            Map<String, Long> cur = toHistogram(it);
+
+            List<String> newStates = new ArrayList<String>();
+            for (String id : cur.keySet()) {
+                if (!seen.contains(id) && prev != null) {
+                    newStates.add(id);
+                }
+            }
+            seen.addAll(cur.keySet());
+
+            if (prev != null) {
+                Statistics.ChiSquare chi = Statistics.homogeneity(prev, cur);
+                if (isShifted(chi) || !newStates.isEmpty()) {
+                    PhaseChange pc = factory.createPhaseChange();
+                    pc.setIteration(it.getIndex());
+                    pc.setChiSquare(chi.getStatistic());
+                    pc.setFreedom(chi.getFreedom());
+                    pc.setCramerV(chi.getCramerV());
+                    pc.getNewState().addAll(newStates);
+                    changes.add(pc);
+                }
+            }
+
+            prev = cur;
+        }
+
+        return changes;
+    }
+
+    /**
+     * Answers if the distributions differ significantly, both statistically and in effect size.
+     *
+     * @param chi chi-square test of the distributions
+     * @return true, if distribution had shifted
+     */
+    public static boolean isShifted(Statistics.ChiSquare chi) {
+        return chi.isSignificant(ALPHA) && chi.getCramerV() >= MIN_CRAMER_V;
+    }
+
+    /**
+     * Answers the first iteration after which the outcome distribution had not shifted.
+     *
+     * @param changes detected changes
+     * @return iteration index
+     */
+    public static int stableSince(List<PhaseChange> changes) {
+        int last = 0;
+        for (PhaseChange pc : changes) {
+            last = Math.max(last, pc.getIteration());
+        }
+        return last;
+    }
+
+    private static Map<String, Long> toHistogram(Iteration it) {
+        Map<String, Long> h = new HashMap<String, Long>();
+        for (State s : it.getState()) {
+            h.put(s.getId(), s.getCount());
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.descr.ExpectType;
+import net.shipilev.concurrency.torture.schema.descr.Test;
+import net.shipilev.concurrency.torture.schema.result.Discovery;
+import net.shipilev.concurrency.torture.schema.result.Env;
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.Kv;
+import net.shipilev.concurrency.torture.schema.result.ObjectFactory;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.State;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Re-runs the tests selected by the previous results, and merges the new counts into them.
+ *
+ * The modes are:
+ * <ul>
+ *     <li>{@code failed}: tests which observed the forbidden states, missed the required ones,
+ *     or timed out, the same way the reports grade them;</li>
+ *     <li>{@code interesting}: failed tests, plus the tests which observed the known, or
+ *     unclassified states, or have no description.</li>
+ * </ul>
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Rerun {
+
+    private final String mode;
+    private final TextResultPrinter printer;
+    private final JAXBContext context;
+    private final PrintWriter pw;
+
+    /**
+     * Result dir -> test name -> previous result, for the selected tests.
+     */
+    private final Map<String, Map<String, Result>> previous;
+    private final Set<String> tests;
+
+    private long since;
+
+    /**
+     * Selects the tests to re-run.
+     *
+     * @param opts options
+     * @param resultDirs directories with the previous results
+     * @throws JAXBException
+     * @throws FileNotFoundException
+     */
+    public Rerun(Options opts, List<String> resultDirs) throws JAXBException, FileNotFoundException {
+        this.mode = opts.getRerun();
+        this.printer = new TextResultPrinter(opts);
+        this.context = JAXBContext.newInstance(Result.class.getPackage().getName());
+        this.pw = new PrintWriter(System.out, true);
+        this.previous = new LinkedHashMap<String, Map<String, Result>>();
+        this.tests = new TreeSet<String>();
+
+        Pattern filter = Pattern.compile(opts.getTestFilter());
+        for (String dir : resultDirs) {
+            Map<String, Result> selected = new LinkedHashMap<String, Result>();
+            for (Result r : load(dir)) {
+                if (filter.matcher(r.getName()).matches() && isSelected(printer.getDescription(r.getName()), r)) {
+                    selected.put(r.getName(), r);
+                    tests.add(r.getName());
+                }
+            }
+            previous.put(dir, selected);
+        }
+    }
+
+    /**
+     * Answers if the test should be re-run in the current mode.
+     *
+     * @param test test description; null if test is not described
+     * @param r previous result
+     * @return true, if test should be re-run
+     */
+    private boolean isSelected(Test test, Result r) {
+        boolean failed = (test != null) ? !TextResultPrinter.isCorrect(test, r) : r.getTimeout() != null;
+        if (failed || !"interesting".equals(mode)) {
+            return failed;
+        }
+        if (test == null) {
+            return true;
+        }
+        for (State s : r.getState()) {
+            ExpectType e = TextResultPrinter.classify(test, s.getId());
+            if (s.getCount() > 0 && e != ExpectType.REQUIRED && e != ExpectType.ACCEPTABLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return names of the tests to re-run
+     */
+    public Set<String> getTests() {
+        return tests;
+    }
+
+    /**
+     * @return regexp matching exactly the tests to re-run
+     */
+    public String getFilter() {
+        if (tests.isEmpty()) {
+            return "(?!)";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String t : tests) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append(Pattern.quote(t));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Marks the start of the re-run. Results written before this are not merged.
+     */
+    public void start() {
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * Merges the fresh results into the previous ones, and reports the change in verdicts.
+     *
+     * @throws JAXBException
+     */
+    public void merge() throws JAXBException {
+        pw.println("Merging the re-run results:");
+        for (Map.Entry<String, Map<String, Result>> dir : previous.entrySet()) {
+            for (Result old : dir.getValue().values()) {
+                File f = new File(dir.getKey(), old.getName() + ".xml");
+                // file times may be as coarse as seconds
+                if (!f.isFile() || f.lastModified() < since - since % 1000) {
+                    pw.printf("%s: not re-run, keeping the previous result\n", f);
+                    continue;
+                }
+
+                Result fresh = (Result) context.createUnmarshaller().unmarshal(f);
+                Result merged = merge(old, fresh);
+
+                Marshaller marshaller = context.createMarshaller();
+                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+                marshaller.marshal(merged, f);
+
+                Test test = printer.getDescription(old.getName());
+                pw.printf("%s: %s -> %s, %d + %d samples\n",
+                        f,
+                        verdict(test, old),
+                        verdict(test, merged),
+                        samples(old),
+                        samples(fresh));
+            }
+        }
+        pw.println();
+    }
+
+    private static String verdict(Test test, Result r) {
+        if (r.getTimeout() != null) {
+            return "TIMEOUT";
+        }
+        if (test == null) {
+            return "UNKNOWN";
+        }
+        return TextResultPrinter.isCorrect(test, r) ? "OK" : "FAILED";
+    }
+
+    private static long samples(Result r) {
+        long samples = 0;
+        for (State s : r.getState()) {
+            samples += s.getCount();
+        }
+        return samples;
+    }
+
+    /**
+     * Merges two results of the same test.
+     * Counts, iterations, discoveries and the sample rate are accumulated. Latencies and
+     * the race window can not be merged, and are taken from the fresh result, if present.
+     *
+     * @param old previous result
+     * @param fresh fresh result
+     * @return merged result
+     */
+    private static Result merge(Result old, Result fresh) {
+        ObjectFactory factory = new ObjectFactory();
+        Result result = factory.createResult();
+        result.setName(fresh.getName());
+
+        Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (Result r : Arrays.asList(old, fresh)) {
+            for (State s : r.getState()) {
+                Long c = counts.get(s.getId());
+                counts.put(s.getId(), (c == null ? 0 : c) + s.getCount());
+            }
+        }
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            State s = factory.createState();
+            s.setId(e.getKey());
+            s.setCount(e.getValue());
+            result.getState().add(s);
+        }
+
+        result.getIteration().addAll(old.getIteration());
+        for (Iteration it : fresh.getIteration()) {
+            it.setIndex(result.getIteration().size());
+            result.getIteration().add(it);
+        }
+        result.getPhaseChange().addAll(PhaseChangeDetector.detect(result.getIteration()));
+
+        Rate rate = fresh.getRate();
+        if (rate != null && old.getRate() != null) {
+            rate.setSamples(rate.getSamples() + old.getRate().getSamples());
+            rate.setTime(rate.getTime() + old.getRate().getTime());
+        }
+        result.setRate(rate != null ? rate : old.getRate());
+
+        for (Result r : Arrays.asList(old, fresh)) {
+            for (Discovery d : r.getDiscovery()) {
+                result.getDiscovery().add(d);
+            }
+        }
+
+        result.getWindow().addAll(fresh.getWindow().isEmpty() ? old.getWindow() : fresh.getWindow());
+        result.getLatency().addAll(fresh.getLatency().isEmpty() ? old.getLatency() : fresh.getLatency());
+        result.setTimeout(fresh.getTimeout());
+
+        Env env = fresh.getEnv();
+        Kv kv = factory.createKv();
+        kv.setKey("harness.rerun.merged");
+        kv.setValue(String.valueOf(mergedRuns(old) + 1));
+        for (Kv p : env.getProperty()) {
+            if (p.getKey().equals(kv.getKey())) {
+                env.getProperty().remove(p);
+                break;
+            }
+        }
+        env.getProperty().add(kv);
+        result.setEnv(env);
+
+        return result;
+    }
+
+    /**
+     * @return number of runs merged into the result so far
+     */
+    private static int mergedRuns(Result r) {
+        if (r.getEnv() != null) {
+            for (Kv p : r.getEnv().getProperty()) {
+                if (p.getKey().equals("harness.rerun.merged")) {
+                    return Integer.parseInt(p.getValue());
+                }
+            }
+        }
+        return 1;
+    }
+
+    private List<Result> load(String dir) throws JAXBException {
+        File[] files = new File(dir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files);
+
+        List<Result> results = new ArrayList<Result>();
+        for (File f : files) {
+            results.add((Result) context.createUnmarshaller().unmarshal(f));
+        }
+        return results;
+    }
+
+}
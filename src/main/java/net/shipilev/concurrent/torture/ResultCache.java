@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Caches the results of unchanged tests between the runs.
+ *
+ * The result is keyed by the bytecode of the test class, its superclasses and nested classes,
+ * the bytecode of the harness itself, the JVM the test runs on with its flags, and the options
+ * affecting the outcomes. The iteration time is not the part of the key: the cached result is
+ * reused as long as it has at least the requested number of measured samples, and did not time out.
+ *
+ * Cached results live in the cache dir, which is not shared between the working directories
+ * by default. It is not in the results dir, since that is scanned for results recursively.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultCache {
+
+    private static final String HARNESS_PACKAGE = "net/shipilev/concurrent/torture/";
+    private static final String TESTS_PACKAGE = HARNESS_PACKAGE + "tests/";
+
+    private static String harnessDigest;
+
+    private final File dir;
+    private final Options opts;
+    private final JAXBContext context;
+    private final TextResultPrinter printer;
+    private final PrintWriter pw;
+
+    public ResultCache(Options opts) throws JAXBException, FileNotFoundException {
+        this.opts = opts;
+        this.dir = new File(opts.getCacheDir());
+        this.dir.mkdirs();
+        this.context = JAXBContext.newInstance(Result.class.getPackage().getName());
+        this.printer = new TextResultPrinter(opts);
+        this.pw = new PrintWriter(System.out, true);
+    }
+
+    /**
+     * Reuses the cached result, if it is still good for this run.
+     *
+     * @param test test class
+     * @param config configuration to run the test in; null if the test is run in this VM, or its plain fork
+     * @param resultDir directory to put the result to
+     * @return true, if cached result was reused, and the test need not run
+     */
+    public boolean restore(Class<?> test, ForkConfig config, String resultDir) {
+        File cached = new File(dir, key(test, config) + ".xml");
+        if (!cached.isFile()) {
+            return false;
+        }
+
+        Result r;
+        try {
+            r = (Result) context.createUnmarshaller().unmarshal(cached);
+        } catch (JAXBException e) {
+            cached.delete();
+            return false;
+        }
+
+        Rate rate = r.getRate();
+        if (r.getTimeout() != null || rate == null || rate.getSamples() < opts.getMinSamples()) {
+            return false;
+        }
+
+        try {
+            File restored = new File(resultDir, test.getName() + ".xml");
+            copy(cached, restored);
+            // keep the time of the actual run, so that the result is not mistaken for the fresh one
+            restored.setLastModified(cached.lastModified());
+        } catch (IOException e) {
+            return false;
+        }
+
+        synchronized (pw) {
+            pw.println("Reusing the cached result for " + test.getName() + (config != null ? " @ " + config.getName() : ""));
+            printer.parse(pw, r);
+            pw.println();
+        }
+        return true;
+    }
+
+    /**
+     * Caches the fresh result. The results which are older than the run, or timed out, are not cached.
+     *
+     * @param test test class
+     * @param config configuration the test was run in; null if the test was run in this VM, or its plain fork
+     * @param resultDir directory the result was put to
+     * @param since time the run was started at, ms
+     */
+    public void store(Class<?> test, ForkConfig config, String resultDir, long since) {
+        File result = new File(resultDir, test.getName() + ".xml");
+        // file times may be as coarse as seconds
+        if (!result.isFile() || result.lastModified() < since - since % 1000) {
+            return;
+        }
+
+        try {
+            Result r = (Result) context.createUnmarshaller().unmarshal(result);
+            if (r.getTimeout() != null) {
+                return;
+            }
+        } catch (JAXBException e) {
+            return;
+        }
+
+        File cached = new File(dir, key(test, config) + ".xml");
+        File temp = new File(cached.getPath() + ".tmp");
+        try {
+            copy(result, temp);
+            cached.delete();
+            if (!temp.renameTo(cached)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Computes the cache key for the test.
+     */
+    private String key(Class<?> test, ForkConfig config) {
+        boolean parent = (config == null || config.isParentJdk());
+
+        StringBuilder key = new StringBuilder();
+        key.append(test.getName()).append('\n');
+        key.append(testDigest(test)).append('\n');
+        key.append(harnessDigest()).append('\n');
+        key.append(parent ? System.getProperty("java.home") : config.getJavaHome()).append('\n');
+        key.append(parent ? System.getProperty("java.version") : config.getJavaVersion()).append('\n');
+        if (config == null) {
+            key.append(ManagementFactory.getRuntimeMXBean().getInputArguments()).append('\n');
+        }
+        if (config != null) {
+            key.append(config.getJvmArgs()).append('\n');
+        }
+        key.append(opts.buildResultKey()).append('\n');
+
+        try {
+            return digest(key.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Digests the bytecode of the test class, its superclasses, and all their nested, local,
+     * and anonymous classes.
+     */
+    private static String testDigest(Class<?> test) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ClassLoader loader = test.getClassLoader();
+        for (Class<?> k = test; k != null && k != Object.class; k = k.getSuperclass()) {
+            List<String> names = new ArrayList<String>();
+            names.add(k.getName());
+            for (int i = 0; i < names.size(); i++) {
+                String name = names.get(i);
+                byte[] b = readClass(loader, name);
+                if (b == null) {
+                    continue;
+                }
+                bytes.write(b, 0, b.length);
+
+                try {
+                    for (Class<?> nested : Class.forName(name, false, loader).getDeclaredClasses()) {
+                        names.add(nested.getName());
+                    }
+                } catch (ClassNotFoundException e) {
+                    // bytecode is there, but class is not loadable; nothing more to add
+                }
+                for (int a = 1; readClass(loader, name + "$" + a) != null; a++) {
+                    names.add(name + "$" + a);
+                }
+            }
+        }
+        return digest(bytes.toByteArray());
+    }
+
+    /**
+     * Digests the bytecode of the harness classes, except the tests. This is computed once per VM.
+     */
+    private static synchronized String harnessDigest() {
+        if (harnessDigest != null) {
+            return harnessDigest;
+        }
+
+        List<byte[]> classes = new ArrayList<byte[]>();
+        try {
+            CodeSource cs = ResultCache.class.getProtectionDomain().getCodeSource();
+            File location = new File(cs.getLocation().toURI());
+            if (location.isDirectory()) {
+                List<String> names = new ArrayList<String>();
+                listClasses(new File(location, HARNESS_PACKAGE), HARNESS_PACKAGE, names);
+                Collections.sort(names);
+                for (String name : names) {
+                    classes.add(readFully(new FileInputStream(new File(location, name))));
+                }
+            } else {
+                JarFile jar = new JarFile(location);
+                try {
+                    List<String> names = new ArrayList<String>();
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        if (isHarnessClass(name)) {
+                            names.add(name);
+                        }
+                    }
+                    Collections.sort(names);
+                    for (String name : names) {
+                        classes.add(readFully(jar.getInputStream(jar.getJarEntry(name))));
+                    }
+                } finally {
+                    jar.close();
+                }
+            }
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] b : classes) {
+            bytes.write(b, 0, b.length);
+        }
+        harnessDigest = digest(bytes.toByteArray());
+        return harnessDigest;
+    }
+
+    private static void listClasses(File dir, String prefix, List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                listClasses(f, name + "/", names);
+            } else if (isHarnessClass(name)) {
+                names.add(name);
+            }
+        }
+    }
+
+    private static boolean isHarnessClass(String name) {
+        return name.startsWith(HARNESS_PACKAGE) && !name.startsWith(TESTS_PACKAGE) && name.endsWith(".class");
+    }
+
+    private static byte[] readClass(ClassLoader loader, String name) {
+        URL url = loader.getResource(name.replace('.', '/') + ".class");
+        if (url == null) {
+            return null;
+        }
+        try {
+            return readFully(url.openStream());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                bos.write(buf, 0, read);
+            }
+            return bos.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        byte[] bytes = readFully(new FileInputStream(from));
+        to.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(to);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(bytes);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : d) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.descr.ExpectType;
+import net.shipilev.concurrency.torture.schema.descr.Test;
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrent.torture.util.Statistics;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compares two result sets, e.g. the runs with different JVM flags, or on different hosts.
+ *
+ * Results are paired by test name, and by the configuration subdirectory for the matrix runs.
+ * For every pair, the diff reports:
+ * <ul>
+ *     <li>verdict changes;</li>
+ *     <li>outcomes observed in only one set, with their classification;</li>
+ *     <li>outcome frequency shifts, significant both statistically and in effect size, the same
+ *     way {@link PhaseChangeDetector} detects them between the iterations;</li>
+ *     <li>sample rate changes; when both results have the measured iterations, the change
+ *     should also be significant over the per-iteration rates.</li>
+ * </ul>
+ *
+ * Verdict changes, and outcomes in only one set which are forbidden, unknown, or can not be
+ * classified, are correctness changes. The exit code tells the scripts what changed:
+ * {@link #SAME}, {@link #CHANGED}, or {@link #CORRECTNESS_CHANGED}.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultDiff {
+
+    /**
+     * Exit code: no differences.
+     */
+    public static final int SAME = 0;
+
+    /**
+     * Exit code: frequencies, sample rates, benign outcomes, or the set of tests differ.
+     */
+    public static final int CHANGED = 2;
+
+    /**
+     * Exit code: verdicts, or the outcomes affecting correctness differ.
+     */
+    public static final int CORRECTNESS_CHANGED = 3;
+
+    /**
+     * Significance level for the sample rate change. Runs have only a few iterations, so the level
+     * is looser than for the outcome frequencies; the minimal change guards against the noise.
+     */
+    private static final double ALPHA = 0.01;
+
+    /**
+     * Sample rates within this relative change are the same, however significant the change is.
+     */
+    private static final double MIN_RATE_CHANGE = 0.10;
+
+    private final TextResultPrinter printer;
+    private final Unmarshaller unmarshaller;
+    private final PrintWriter pw;
+
+    public ResultDiff(Options opts) throws JAXBException, FileNotFoundException {
+        this.printer = new TextResultPrinter(opts);
+        this.unmarshaller = JAXBContext.newInstance(Result.class.getPackage().getName()).createUnmarshaller();
+        this.pw = new PrintWriter(System.out, true);
+    }
+
+    /**
+     * Compares the result sets, and prints the differences.
+     *
+     * @param dirA results dir of the baseline
+     * @param dirB results dir to compare with the baseline
+     * @return exit code
+     * @throws IllegalArgumentException if results dir does not exist
+     */
+    public int diff(String dirA, String dirB) {
+        SortedMap<String, Result> a = load(new File(dirA));
+        SortedMap<String, Result> b = load(new File(dirB));
+        pw.println("A: " + dirA + ", " + a.size() + " results");
+        pw.println("B: " + dirB + ", " + b.size() + " results");
+        pw.println();
+
+        SortedSet<String> keys = new TreeSet<String>();
+        keys.addAll(a.keySet());
+        keys.addAll(b.keySet());
+
+        List<String> onlyA = new ArrayList<String>();
+        List<String> onlyB = new ArrayList<String>();
+        int same = 0;
+        int changed = 0;
+        int broken = 0;
+        for (String key : keys) {
+            Result ra = a.get(key);
+            Result rb = b.get(key);
+            if (rb == null) {
+                onlyA.add(key);
+            } else if (ra == null) {
+                onlyB.add(key);
+            } else {
+                switch (compare(key, ra, rb)) {
+                    case SAME:
+                        same++;
+                        break;
+                    case CHANGED:
+                        changed++;
+                        break;
+                    default:
+                        broken++;
+                }
+            }
+        }
+
+        printOnly("A", onlyA);
+        printOnly("B", onlyB);
+
+        pw.printf("Compared %d tests: %d same, %d changed, %d changed correctness; %d tests in only one set\n",
+                same + changed + broken, same, changed, broken, onlyA.size() + onlyB.size());
+
+        if (broken > 0) {
+            return CORRECTNESS_CHANGED;
+        }
+        if (changed > 0 || !onlyA.isEmpty() || !onlyB.isEmpty()) {
+            return CHANGED;
+        }
+        return SAME;
+    }
+
+    /**
+     * Compares the pair of results, and prints the differences, if any.
+     */
+    private int compare(String key, Result ra, Result rb) {
+        Test test = printer.getDescription(ra.getName());
+        List<String> lines = new ArrayList<String>();
+        int code = SAME;
+
+        String va = verdict(test, ra);
+        String vb = verdict(test, rb);
+        if (!va.equals(vb)) {
+            code = CORRECTNESS_CHANGED;
+        }
+
+        SortedMap<String, Long> ha = histogram(ra);
+        SortedMap<String, Long> hb = histogram(rb);
+        code = Math.max(code, only("A", test, ha, hb, lines));
+        code = Math.max(code, only("B", test, hb, ha, lines));
+
+        Statistics.ChiSquare chi = Statistics.homogeneity(ha, hb);
+        if (PhaseChangeDetector.isShifted(chi)) {
+            code = Math.max(code, CHANGED);
+            long ta = Statistics.sum(ha);
+            long tb = Statistics.sum(hb);
+            lines.add(String.format("outcome frequencies shifted: chi^2 = %.1f, %d dof, Cramer's V = %.3f",
+                    chi.getStatistic(), chi.getFreedom(), chi.getCramerV()));
+            SortedSet<String> ids = new TreeSet<String>(ha.keySet());
+            ids.addAll(hb.keySet());
+            for (String id : ids) {
+                lines.add(String.format("  %35s %10.4f%% -> %10.4f%%  %s", id,
+                        percent(ha.get(id), ta), percent(hb.get(id), tb), classification(test, id)));
+            }
+        }
+
+        double rateA = rate(ra);
+        double rateB = rate(rb);
+        if (rateA > 0 && rateB > 0) {
+            double change = (rateB - rateA) / rateA;
+            boolean significant = Math.abs(change) >= MIN_RATE_CHANGE;
+            double[] ia = iterationRates(ra);
+            double[] ib = iterationRates(rb);
+            if (ia.length >= 2 && ib.length >= 2) {
+                significant &= Statistics.welch(ia, ib).isSignificant(ALPHA);
+            }
+            if (significant) {
+                code = Math.max(code, CHANGED);
+                lines.add(String.format("sample rate: %.0f/sec -> %.0f/sec (%+.1f%%)", rateA, rateB, change * 100));
+            }
+        }
+
+        if (code != SAME) {
+            pw.println(key + ": " + va + (va.equals(vb) ? "" : " -> " + vb));
+            for (String line : lines) {
+                pw.println("  " + line);
+            }
+            pw.println();
+        }
+        return code;
+    }
+
+    /**
+     * Lists the outcomes observed in this set only.
+     *
+     * @return {@link #CORRECTNESS_CHANGED} if any of the outcomes affects correctness
+     */
+    private int only(String set, Test test, Map<String, Long> h, Map<String, Long> other, List<String> lines) {
+        int code = SAME;
+        for (Map.Entry<String, Long> e : h.entrySet()) {
+            if (e.getValue() == 0 || other.containsKey(e.getKey())) {
+                continue;
+            }
+            lines.add(String.format("only in %s: %35s (%12d)  %s", set, e.getKey(), e.getValue(), classification(test, e.getKey())));
+            code = Math.max(code, affectsCorrectness(test, e.getKey()) ? CORRECTNESS_CHANGED : CHANGED);
+        }
+        return code;
+    }
+
+    private void printOnly(String set, List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        pw.println("Only in " + set + ":");
+        for (String key : keys) {
+            pw.println("  " + key);
+        }
+        pw.println();
+    }
+
+    private static boolean affectsCorrectness(Test test, String id) {
+        if (test == null) {
+            return true;
+        }
+        ExpectType e = TextResultPrinter.classify(test, id);
+        return e == ExpectType.FORBIDDEN || e == ExpectType.KNOWN_FORBIDDEN || e == ExpectType.UNKNOWN;
+    }
+
+    private static String classification(Test test, String id) {
+        return (test == null) ? "UNCLASSIFIED" : TextResultPrinter.classify(test, id).toString();
+    }
+
+    private static String verdict(Test test, Result r) {
+        if (r.getTimeout() != null) {
+            return "TIMEOUT";
+        }
+        if (test == null) {
+            return "UNKNOWN";
+        }
+        return TextResultPrinter.isCorrect(test, r) ? "OK" : "FAILED";
+    }
+
+    private static SortedMap<String, Long> histogram(Result r) {
+        SortedMap<String, Long> h = new TreeMap<String, Long>();
+        for (State s : r.getState()) {
+            if (s.getCount() > 0) {
+                h.put(s.getId(), s.getCount());
+            }
+        }
+        return h;
+    }
+
+    private static double percent(Long count, long total) {
+        return (count == null || total == 0) ? 0 : count * 100.0 / total;
+    }
+
+    private static double rate(Result r) {
+        Rate rate = r.getRate();
+        if (rate == null || rate.getTime() == 0) {
+            return 0;
+        }
+        return rate.getSamples() * 1000.0 / rate.getTime();
+    }
+
+    /**
+     * @return sample rates of the measured iterations; empty for the merged results
+     */
+    private static double[] iterationRates(Result r) {
+        double[] rates = new double[r.getIteration().size()];
+        int n = 0;
+        for (Iteration it : r.getIteration()) {
+            if (!it.isWarmup() && it.getTime() > 0) {
+                rates[n++] = it.getSamples() * 1000.0 / it.getTime();
+            }
+        }
+        return Arrays.copyOf(rates, n);
+    }
+
+    /**
+     * Loads the results, keyed by the test name, and the subdirectory for the matrix runs.
+     */
+    private SortedMap<String, Result> load(File dir) {
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException("Not a results dir: " + dir);
+        }
+        SortedMap<String, Result> results = new TreeMap<String, Result>();
+        scan(dir, "", results);
+        return results;
+    }
+
+    private void scan(File dir, String config, SortedMap<String, Result> results) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File f : children) {
+            if (f.isDirectory()) {
+                scan(f, config.isEmpty() ? f.getName() : config + "/" + f.getName(), results);
+            } else if (f.getName().endsWith(".xml")) {
+                Object o;
+                try {
+                    o = unmarshaller.unmarshal(f);
+                } catch (JAXBException e) {
+                    continue;
+                }
+                if (o instanceof Result) {
+                    Result r = (Result) o;
+                    results.put(config.isEmpty() ? r.getName() : r.getName() + " @ " + config, r);
+                }
+            }
+        }
+    }
+
+}
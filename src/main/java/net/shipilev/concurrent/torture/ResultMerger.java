@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.descr.Test;
+import net.shipilev.concurrency.torture.schema.result.Discovery;
+import net.shipilev.concurrency.torture.schema.result.Env;
+import net.shipilev.concurrency.torture.schema.result.Kv;
+import net.shipilev.concurrency.torture.schema.result.ObjectFactory;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.Source;
+import net.shipilev.concurrency.torture.schema.result.State;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Aggregates the results of many runs, possibly from many hosts.
+ *
+ * Result files are parsed in parallel, and folded into the per-test aggregates as soon as they
+ * are parsed, so that only the aggregates are kept in memory. The results are aggregated
+ * separately for every environment fingerprint: the environment properties, except the ones
+ * which differ from run to run without affecting the outcomes, like the seed and the paths.
+ * Every fingerprint gets its own directory in the results dir, with the merged results and
+ * the report.
+ *
+ * Merged result lists every source it was merged from. Merged results can be merged again:
+ * their sources are carried over, and the same source is never counted twice.
+ *
+ * Only the outcome counts, sample rates and search discoveries are aggregated. Iterations,
+ * phase changes, handoff latencies and race window profiles do not add up across runs, and are
+ * dropped.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultMerger {
+
+    /**
+     * Environment properties which are not the part of fingerprint.
+     */
+    private static final Set<String> VOLATILE_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "java.home",
+            "harness.seed",
+            "harness.delay.spinsPerNano",
+            "harness.rerun.merged"
+    ));
+
+    /**
+     * JVM flags the harness sets for its own needs.
+     */
+    private static final String[] HARNESS_FLAGS = {
+            "-XX:SharedArchiveFile=",
+            "-XX:ArchiveClassesAtExit=",
+            "-Xlog:cds",
+            "--add-opens",
+    };
+
+    private final String destDir;
+    private final Options opts;
+    private final JAXBContext context;
+    private final PrintWriter pw;
+
+    /**
+     * Test name + fingerprint -> aggregate.
+     */
+    private final ConcurrentMap<String, Aggregate> aggregates;
+
+    /**
+     * Sources already merged, to count every source once.
+     */
+    private final Set<String> seen;
+
+    private final AtomicInteger parsed;
+    private final AtomicInteger skipped;
+
+    public ResultMerger(Options opts) throws JAXBException {
+        this.opts = opts;
+        this.destDir = opts.getResultDest();
+        this.context = JAXBContext.newInstance(Result.class.getPackage().getName());
+        this.pw = new PrintWriter(System.out, true);
+        this.aggregates = new ConcurrentHashMap<String, Aggregate>();
+        this.seen = new HashSet<String>();
+        this.parsed = new AtomicInteger();
+        this.skipped = new AtomicInteger();
+    }
+
+    /**
+     * Merges the results, writes them down to the results dir, and generates the reports.
+     *
+     * @param sources result files, or directories to scan for the result files
+     * @throws InterruptedException
+     * @throws JAXBException
+     * @throws IOException
+     */
+    public void merge(List<String> sources) throws InterruptedException, JAXBException, IOException {
+        List<File> files = new ArrayList<File>();
+        File dest = new File(destDir).getCanonicalFile();
+        for (String s : sources) {
+            scan(new File(s), dest, files);
+        }
+        pw.println("Merging " + files.size() + " result files into " + destDir + ", using " + Runtime.getRuntime().availableProcessors() + " threads");
+
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<Unmarshaller>() {
+                @Override
+                protected Unmarshaller initialValue() {
+                    try {
+                        return context.createUnmarshaller();
+                    } catch (JAXBException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final File f : files) {
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Object o;
+                        try {
+                            o = unmarshallers.get().unmarshal(f);
+                        } catch (JAXBException e) {
+                            skipped.incrementAndGet();
+                            return;
+                        }
+                        if (!(o instanceof Result)) {
+                            skipped.incrementAndGet();
+                            return;
+                        }
+                        add(f, (Result) o);
+                        parsed.incrementAndGet();
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        pw.printf("Parsed %d results in %d ms, skipped %d files which are not results\n",
+                parsed.get(), System.currentTimeMillis() - start, skipped.get());
+
+        write();
+    }
+
+    private static void scan(File f, File dest, List<File> files) throws IOException {
+        if (f.isDirectory()) {
+            if (f.getCanonicalFile().equals(dest)) {
+                // merged results from the previous merges are already accounted in their sources
+                return;
+            }
+            File[] children = f.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File c : children) {
+                    scan(c, dest, files);
+                }
+            }
+        } else if (f.getName().endsWith(".xml")) {
+            files.add(f);
+        }
+    }
+
+    /**
+     * Folds the result into its aggregate.
+     */
+    private void add(File f, Result r) {
+        SortedMap<String, String> env = fingerprintEnv(r.getEnv());
+        String key = r.getName() + "\n" + env;
+
+        Aggregate a = aggregates.get(key);
+        if (a == null) {
+            Aggregate fresh = new Aggregate(r.getName(), env);
+            a = aggregates.putIfAbsent(key, fresh);
+            if (a == null) {
+                a = fresh;
+            }
+        }
+
+        List<Source> sources = new ArrayList<Source>();
+        if (r.getSource().isEmpty()) {
+            Source s = new ObjectFactory().createSource();
+            s.setPath(f.getAbsolutePath());
+            s.setSamples(samples(r));
+            s.setSeed(property(r.getEnv(), "harness.seed"));
+            sources.add(s);
+        } else {
+            sources.addAll(r.getSource());
+        }
+
+        synchronized (seen) {
+            for (Source s : sources) {
+                if (seen.contains(s.getPath())) {
+                    // overlapping inputs; do not count the result twice
+                    return;
+                }
+            }
+            for (Source s : sources) {
+                seen.add(s.getPath());
+            }
+        }
+
+        a.add(r, sources);
+    }
+
+    /**
+     * Writes the aggregates down, one directory per fingerprint, and generates the reports.
+     */
+    private void write() throws JAXBException, FileNotFoundException {
+        Map<SortedMap<String, String>, String> dirs = new TreeMap<SortedMap<String, String>, String>(new Comparator<SortedMap<String, String>>() {
+            @Override
+            public int compare(SortedMap<String, String> o1, SortedMap<String, String> o2) {
+                return o1.toString().compareTo(o2.toString());
+            }
+        });
+        for (Aggregate a : aggregates.values()) {
+            if (!dirs.containsKey(a.env)) {
+                dirs.put(a.env, destDir + "/" + dirName(a.env));
+            }
+        }
+
+        TextResultPrinter printer = new TextResultPrinter(opts);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+
+        List<Aggregate> sorted = new ArrayList<Aggregate>(aggregates.values());
+        Collections.sort(sorted, new Comparator<Aggregate>() {
+            @Override
+            public int compare(Aggregate o1, Aggregate o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        });
+
+        pw.println();
+        for (Map.Entry<SortedMap<String, String>, String> d : dirs.entrySet()) {
+            File dir = new File(d.getValue());
+            dir.mkdirs();
+            pw.println(dir + ": " + d.getKey().get("java.vm.name") + " " + d.getKey().get("java.version") + ", " + d.getKey().get("os.name") + " " + d.getKey().get("os.arch") +
+                    (d.getKey().get("jvm.args").isEmpty() ? "" : ", " + d.getKey().get("jvm.args")));
+
+            for (Aggregate a : sorted) {
+                if (!a.env.equals(d.getKey())) {
+                    continue;
+                }
+                Result r = a.toResult();
+                marshaller.marshal(r, new File(dir, a.name + ".xml"));
+
+                Test test = printer.getDescription(a.name);
+                pw.printf("  %-80s %14d samples from %6d runs  %s\n",
+                        a.name, samples(r), r.getSource().size(),
+                        test == null ? "UNKNOWN" : (TextResultPrinter.isCorrect(test, r) ? "OK" : "FAILED"));
+            }
+
+            new XMLtoHTMLResultPrinter(dir.getPath()).parse();
+        }
+        pw.println();
+    }
+
+    /**
+     * Answers the environment properties making up the fingerprint.
+     *
+     * @param env environment of the result; may be null
+     * @return fingerprint properties
+     */
+    static SortedMap<String, String> fingerprintEnv(Env env) {
+        SortedMap<String, String> props = new TreeMap<String, String>();
+        if (env == null) {
+            return props;
+        }
+        for (Kv kv : env.getProperty()) {
+            if (VOLATILE_PROPERTIES.contains(kv.getKey())) {
+                continue;
+            }
+            if (kv.getKey().equals("jvm.args")) {
+                props.put(kv.getKey(), userFlags(kv.getValue()));
+            } else {
+                props.put(kv.getKey(), kv.getValue());
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Strips the flags set by the harness itself, which may differ from run to run.
+     */
+    private static String userFlags(String args) {
+        StringBuilder sb = new StringBuilder();
+        for (String arg : args.split(" ")) {
+            boolean harness = arg.isEmpty();
+            for (String h : HARNESS_FLAGS) {
+                harness |= arg.startsWith(h);
+            }
+            // --add-opens takes the value as the separate argument
+            harness |= arg.startsWith("java.base/");
+            if (!harness) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(arg);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String dirName(SortedMap<String, String> env) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(env.toString().getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            sb.append(env.get("java.version")).append('_').append(env.get("os.arch")).append('_');
+            for (int i = 0; i < 4; i++) {
+                sb.append(String.format("%02x", d[i]));
+            }
+            return sb.toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String property(Env env, String key) {
+        if (env != null) {
+            for (Kv kv : env.getProperty()) {
+                if (kv.getKey().equals(key)) {
+                    return kv.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long samples(Result r) {
+        long samples = 0;
+        for (State s : r.getState()) {
+            samples += s.getCount();
+        }
+        return samples;
+    }
+
+    /**
+     * Accumulated results for the test in the environment.
+     */
+    private static class Aggregate {
+        private final String name;
+        private final SortedMap<String, String> env;
+        private final SortedMap<String, Long> counts = new TreeMap<String, Long>();
+        private final List<Discovery> discoveries = new ArrayList<Discovery>();
+        private final List<Source> sources = new ArrayList<Source>();
+        private Rate rate;
+
+        Aggregate(String name, SortedMap<String, String> env) {
+            this.name = name;
+            this.env = env;
+        }
+
+        synchronized void add(Result r, List<Source> from) {
+            for (State s : r.getState()) {
+                Long c = counts.get(s.getId());
+                counts.put(s.getId(), (c == null ? 0 : c) + s.getCount());
+            }
+            discoveries.addAll(r.getDiscovery());
+            sources.addAll(from);
+
+            Rate other = r.getRate();
+            if (other != null) {
+                if (rate == null) {
+                    rate = other;
+                } else {
+                    rate.setSamples(rate.getSamples() + other.getSamples());
+                    rate.setTime(rate.getTime() + other.getTime());
+                }
+            }
+        }
+
+        synchronized Result toResult() {
+            ObjectFactory factory = new ObjectFactory();
+            Result r = factory.createResult();
+            r.setName(name);
+
+            for (Map.Entry<String, Long> e : counts.entrySet()) {
+                State s = factory.createState();
+                s.setId(e.getKey());
+                s.setCount(e.getValue());
+                r.getState().add(s);
+            }
+            r.setRate(rate);
+            r.getDiscovery().addAll(discoveries);
+
+            Env e = factory.createEnv();
+            for (Map.Entry<String, String> p : env.entrySet()) {
+                Kv kv = factory.createKv();
+                kv.setKey(p.getKey());
+                kv.setValue(p.getValue());
+                e.getProperty().add(kv);
+            }
+            r.setEnv(e);
+
+            List<Source> ordered = new ArrayList<Source>(sources);
+            Collections.sort(ordered, new Comparator<Source>() {
+                @Override
+                public int compare(Source o1, Source o2) {
+                    return o1.getPath().compareTo(o2.getPath());
+                }
+            });
+            r.getSource().addAll(ordered);
+            return r;
+        }
+    }
+
+}
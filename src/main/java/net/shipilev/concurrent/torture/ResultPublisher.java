@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.result.Kv;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the results down to the results dir, and prints the reports to the console.
+ * Also fills in the harness peak rate from the calibration of this host, when it was run in the same mode.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultPublisher implements ResultSink {
+
+    private final File destDir;
+    private final PrintWriter pw;
+    private final TextResultPrinter printer;
+    private final JAXBContext context;
+    private final Calibration calibration;
+
+    /**
+     * Creates the publisher.
+     *
+     * @param opts options
+     * @param destDir directory to store the results in
+     * @throws FileNotFoundException
+     * @throws JAXBException
+     */
+    public ResultPublisher(Options opts, String destDir) throws FileNotFoundException, JAXBException {
+        this(opts, destDir, new PrintWriter(System.out, true));
+    }
+
+    /**
+     * Creates the publisher reporting to the given writer.
+     *
+     * @param opts options
+     * @param destDir directory to store the results in
+     * @param pw writer to report to
+     * @throws FileNotFoundException
+     * @throws JAXBException
+     */
+    public ResultPublisher(Options opts, String destDir, PrintWriter pw) throws FileNotFoundException, JAXBException {
+        this.destDir = new File(destDir);
+        this.destDir.mkdirs();
+        this.pw = pw;
+        this.printer = new TextResultPrinter(opts);
+        this.context = JAXBContext.newInstance(Result.class.getPackage().getName());
+        this.calibration = Calibration.load();
+    }
+
+    @Override
+    public void publish(Result result) {
+        Rate rate = result.getRate();
+        if (rate != null && rate.getEngine() != null && rate.getStride() != null) {
+            rate.setPeak(calibration.getPeak(rate.getEngine(), rate.getStride(), "yield".equals(rate.getWait()), envOf(result)));
+        }
+
+        try {
+            Marshaller marshaller = context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+            marshaller.marshal(result, new File(destDir + "/" + result.getName() + ".xml"));
+        } catch (Throwable e) {
+            e.printStackTrace();
+        }
+
+        printer.parse(pw, result);
+        pw.println();
+    }
+
+    private static Map<String, String> envOf(Result result) {
+        Map<String, String> env = new HashMap<String, String>();
+        if (result.getEnv() != null) {
+            for (Kv kv : result.getEnv().getProperty()) {
+                env.put(kv.getKey(), kv.getValue());
+            }
+        }
+        return env;
+    }
+
+}
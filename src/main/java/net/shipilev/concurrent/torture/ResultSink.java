@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.result.Result;
+
+/**
+ * Persists and reports the results built by {@link ResultWriter}.
+ *
+ * The sink is shared with the tests running in the isolated class loaders: its signature only
+ * refers to the JDK and result schema classes, which all loaders share, so that the
+ * descriptions and the JAXB context are set up once per VM, not once per test.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public interface ResultSink {
+
+    /**
+     * Persists the result, and prints the report.
+     * Writers call this in the output order, on their output executor.
+     *
+     * @param result result
+     */
+    void publish(Result result);
+
+}
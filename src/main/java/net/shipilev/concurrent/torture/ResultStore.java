@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrency.torture.schema.descr.ExpectType;
+import net.shipilev.concurrency.torture.schema.descr.Test;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.State;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the history of the results in the results dir.
+ *
+ * The store lives in the history/ subdirectory, and consists of:
+ * <ul>
+ *     <li>append-only segments with the results: one line per result, with the outcome counts;</li>
+ *     <li>the environments: one line per environment fingerprint, see {@link ResultMerger};</li>
+ *     <li>the index: one line per result, with the test, environment, date, sample rate, verdict,
+ *     the states observed for the first time in this environment, and the location of the
+ *     result in the segment.</li>
+ * </ul>
+ * The index is read into memory when the store is opened, and answers the history queries
+ * by itself; segments are only read to get the complete outcome counts. Every file is only
+ * appended to, and the segment is written before the index, so that the interrupted append
+ * leaves the store consistent: the torn last lines are cut off when the store is opened, and
+ * the lines which are malformed, refer to the unknown environment, or point past the end
+ * of the segment, are ignored.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultStore {
+
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private final File dir;
+    private final File envFile;
+    private final File indexFile;
+
+    private final Map<String, SortedMap<String, String>> envs;
+    private final List<Entry> entries;
+
+    /**
+     * Test + environment -> states observed so far.
+     */
+    private final Map<String, Set<String>> seen;
+
+    private int segment;
+
+    private ResultStore(File dir) {
+        this.dir = dir;
+        this.envFile = new File(dir, "envs.txt");
+        this.indexFile = new File(dir, "index.txt");
+        this.envs = new HashMap<String, SortedMap<String, String>>();
+        this.entries = new ArrayList<Entry>();
+        this.seen = new HashMap<String, Set<String>>();
+    }
+
+    /**
+     * Opens the store in the results dir, creating it if needed.
+     *
+     * @param resultDir results dir
+     * @return store
+     * @throws IOException
+     */
+    public static ResultStore open(String resultDir) throws IOException {
+        ResultStore store = new ResultStore(new File(resultDir, "history"));
+        store.dir.mkdirs();
+        store.load();
+        return store;
+    }
+
+    /**
+     * Answers if the results dir has the store.
+     *
+     * @param resultDir results dir
+     * @return true, if store exists
+     */
+    public static boolean exists(String resultDir) {
+        return new File(new File(resultDir, "history"), "index.txt").isFile();
+    }
+
+    private void load() throws IOException {
+        repair(envFile);
+        repair(indexFile);
+
+        for (String line : readLines(envFile)) {
+            String[] f = line.split("\t");
+            SortedMap<String, String> env = parseEnv(f);
+            if (env != null) {
+                envs.put(f[0], env);
+            }
+        }
+
+        for (String line : readLines(indexFile)) {
+            Entry e = Entry.parse(line);
+            if (e == null || !envs.containsKey(e.env) || e.offset + e.length > segmentFile(e.segment).length()) {
+                continue;
+            }
+            entries.add(e);
+            seenStates(e.test, e.env).addAll(e.newStates);
+            segment = Math.max(segment, e.segment);
+        }
+    }
+
+    /**
+     * @param f environment id, and its properties
+     * @return environment properties; null if line is malformed
+     */
+    private static SortedMap<String, String> parseEnv(String[] f) {
+        SortedMap<String, String> env = new TreeMap<String, String>();
+        try {
+            for (int i = 1; i < f.length; i++) {
+                int eq = f[i].indexOf('=');
+                env.put(decode(f[i].substring(0, eq)), decode(f[i].substring(eq + 1)));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        return env;
+    }
+
+    /**
+     * Appends the results written to the results dir since the given time.
+     *
+     * @param resultDir results dir
+     * @param since time the run was started at, ms
+     * @param printer printer to take the test descriptions from
+     * @return number of results appended
+     * @throws IOException
+     * @throws JAXBException
+     */
+    public int ingest(String resultDir, long since, TextResultPrinter printer) throws IOException, JAXBException {
+        File[] files = new File(resultDir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+        Arrays.sort(files);
+
+        Unmarshaller u = JAXBContext.newInstance(Result.class.getPackage().getName()).createUnmarshaller();
+        int count = 0;
+        for (File f : files) {
+            // file times may be as coarse as seconds
+            if (f.lastModified() < since - since % 1000) {
+                continue;
+            }
+            Result r = (Result) u.unmarshal(f);
+            append(r, printer.getDescription(r.getName()), f.lastModified());
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends the result.
+     *
+     * @param r result
+     * @param test test description; null if test is not described
+     * @param timestamp time the result was obtained at, ms
+     * @throws IOException
+     */
+    public void append(Result r, Test test, long timestamp) throws IOException {
+        SortedMap<String, String> env = ResultMerger.fingerprintEnv(r.getEnv());
+        String envId = envId(env);
+        if (!envs.containsKey(envId)) {
+            StringBuilder sb = new StringBuilder(envId);
+            for (Map.Entry<String, String> p : env.entrySet()) {
+                sb.append('\t').append(encode(p.getKey())).append('=').append(encode(p.getValue()));
+            }
+            appendLine(envFile, sb.toString());
+            envs.put(envId, env);
+        }
+
+        StringBuilder record = new StringBuilder();
+        record.append(timestamp).append('\t').append(r.getName()).append('\t').append(envId).append('\t');
+        boolean first = true;
+        for (State s : r.getState()) {
+            if (!first) {
+                record.append(';');
+            }
+            record.append(encode(s.getId())).append('=').append(s.getCount());
+            first = false;
+        }
+        record.append('\n');
+        byte[] bytes = record.toString().getBytes("UTF-8");
+
+        File seg = segmentFile(segment);
+        if (seg.length() > 0 && seg.length() + bytes.length > SEGMENT_SIZE) {
+            seg = segmentFile(++segment);
+        }
+        long offset = seg.length();
+        append(seg, bytes);
+
+        Entry e = new Entry();
+        e.timestamp = timestamp;
+        e.test = r.getName();
+        e.env = envId;
+        e.segment = segment;
+        e.offset = offset;
+        e.length = bytes.length;
+        Rate rate = r.getRate();
+        e.samples = (rate != null) ? rate.getSamples() : 0;
+        e.time = (rate != null) ? rate.getTime() : 0;
+        e.timeout = r.getTimeout() != null;
+        e.failed = e.timeout || (test != null && !TextResultPrinter.isCorrect(test, r));
+        Set<String> states = seenStates(e.test, envId);
+        for (State s : r.getState()) {
+            if (s.getCount() > 0) {
+                if (test != null) {
+                    ExpectType t = TextResultPrinter.classify(test, s.getId());
+                    e.forbidden |= (t == ExpectType.FORBIDDEN || t == ExpectType.KNOWN_FORBIDDEN);
+                }
+                if (states.add(s.getId())) {
+                    e.newStates.add(s.getId());
+                }
+            }
+        }
+
+        appendLine(indexFile, e.toString());
+        entries.add(e);
+    }
+
+    /**
+     * Answers the results of the tests, oldest first.
+     *
+     * @param testFilter regexp for test names
+     * @return entries
+     */
+    public List<Entry> find(String testFilter) {
+        Pattern p = Pattern.compile(testFilter);
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry e : entries) {
+            if (p.matcher(e.test).matches()) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Answers the results which observed the forbidden states on the given JDK, oldest first.
+     *
+     * @param jdk major version, like "17", or the version prefix, like "1.8.0_3"
+     * @return entries
+     */
+    public List<Entry> findForbidden(String jdk) {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry e : entries) {
+            if (!e.forbidden) {
+                continue;
+            }
+            String version = envs.get(e.env).get("java.version");
+            if (version == null) {
+                continue;
+            }
+            if (version.startsWith(jdk) || String.valueOf(ForkConfig.majorVersion(version)).equals(jdk)) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param envId environment id
+     * @return environment properties
+     */
+    public SortedMap<String, String> getEnv(String envId) {
+        return envs.get(envId);
+    }
+
+    /**
+     * Reads the complete outcome counts of the result from the segment.
+     *
+     * @param e entry
+     * @return state -> count
+     * @throws IOException
+     */
+    public Map<String, Long> readStates(Entry e) throws IOException {
+        byte[] bytes = new byte[(int) e.length];
+        RandomAccessFile raf = new RandomAccessFile(segmentFile(e.segment), "r");
+        try {
+            raf.seek(e.offset);
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+
+        String[] f = new String(bytes, "UTF-8").trim().split("\t", -1);
+        Map<String, Long> states = new LinkedHashMap<String, Long>();
+        if (f.length > 3 && !f[3].isEmpty()) {
+            for (String s : f[3].split(";")) {
+                int eq = s.lastIndexOf('=');
+                states.put(decode(s.substring(0, eq)), Long.parseLong(s.substring(eq + 1)));
+            }
+        }
+        return states;
+    }
+
+    private Set<String> seenStates(String test, String envId) {
+        String key = test + "\t" + envId;
+        Set<String> s = seen.get(key);
+        if (s == null) {
+            s = new HashSet<String>();
+            seen.put(key, s);
+        }
+        return s;
+    }
+
+    private File segmentFile(int index) {
+        return new File(dir, String.format("segment-%06d.txt", index));
+    }
+
+    private static String envId(SortedMap<String, String> env) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(env.toString().getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                sb.append(String.format("%02x", d[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Cuts off the incomplete last line, so that the following appends start on the new line.
+     * The incomplete line is the interrupted append, and terminating it instead would make it
+     * look complete.
+     */
+    private static void repair(File f) throws IOException {
+        if (f.length() == 0) {
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            long end = raf.length();
+            byte[] buf = new byte[4096];
+            while (end > 0) {
+                int len = (int) Math.min(buf.length, end);
+                raf.seek(end - len);
+                raf.readFully(buf, 0, len);
+                for (int i = len - 1; i >= 0; i--) {
+                    if (buf[i] == '\n') {
+                        raf.setLength(end - len + i + 1);
+                        return;
+                    }
+                }
+                end -= len;
+            }
+            raf.setLength(0);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void appendLine(File f, String line) throws IOException {
+        append(f, (line + "\n").getBytes("UTF-8"));
+    }
+
+    private static void append(File f, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(f, true);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the complete lines; the incomplete last line is the interrupted append, and is skipped.
+     */
+    private static List<String> readLines(File f) throws IOException {
+        if (!f.isFile()) {
+            return Collections.emptyList();
+        }
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '\n') {
+                    lines.add(sb.toString());
+                    sb.setLength(0);
+                } else {
+                    sb.append((char) c);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private static String encode(String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Index entry: single result of the test.
+     */
+    public static class Entry {
+        private long timestamp;
+        private String test;
+        private String env;
+        private int segment;
+        private long offset;
+        private long length;
+        private long samples;
+        private long time;
+        private boolean forbidden;
+        private boolean failed;
+        private boolean timeout;
+        private final List<String> newStates = new ArrayList<String>();
+
+        /**
+         * @return time the result was obtained at, ms
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getTest() {
+            return test;
+        }
+
+        /**
+         * @return environment id
+         */
+        public String getEnv() {
+            return env;
+        }
+
+        /**
+         * @return samples per second; 0 if unknown
+         */
+        public double getRate() {
+            return (time > 0) ? samples * 1000.0 / time : 0;
+        }
+
+        /**
+         * @return true, if forbidden or known forbidden states were observed
+         */
+        public boolean hasForbidden() {
+            return forbidden;
+        }
+
+        /**
+         * @return verdict, the same as in the reports
+         */
+        public String getVerdict() {
+            if (timeout) {
+                return "TIMEOUT";
+            }
+            return failed ? "FAILED" : "OK";
+        }
+
+        /**
+         * @return states observed for the first time for this test in this environment
+         */
+        public List<String> getNewStates() {
+            return newStates;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(timestamp).append('\t').append(test).append('\t').append(env).append('\t');
+            sb.append(segment).append('\t').append(offset).append('\t').append(length).append('\t');
+            sb.append(samples).append('\t').append(time).append('\t');
+            sb.append(forbidden ? "F" : "").append(failed ? "X" : "").append(timeout ? "T" : "").append('\t');
+            boolean first = true;
+            for (String s : newStates) {
+                if (!first) {
+                    sb.append(';');
+                }
+                sb.append(encode(s));
+                first = false;
+            }
+            return sb.toString();
+        }
+
+        static Entry parse(String line) {
+            String[] f = line.split("\t", -1);
+            if (f.length != 10) {
+                return null;
+            }
+            try {
+                Entry e = new Entry();
+                e.timestamp = Long.parseLong(f[0]);
+                e.test = f[1];
+                e.env = f[2];
+                e.segment = Integer.parseInt(f[3]);
+                e.offset = Long.parseLong(f[4]);
+                e.length = Long.parseLong(f[5]);
+                e.samples = Long.parseLong(f[6]);
+                e.time = Long.parseLong(f[7]);
+                e.forbidden = f[8].contains("F");
+                e.failed = f[8].contains("X");
+                e.timeout = f[8].contains("T");
+                if (!f[9].isEmpty()) {
+                    for (String s : f[9].split(";")) {
+                        e.newStates.add(decode(s));
+                    }
+                }
+                return e;
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+    }
+
+}
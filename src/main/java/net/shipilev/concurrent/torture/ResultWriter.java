@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrency.torture.schema.result.Discovery;
+import net.shipilev.concurrency.torture.schema.result.Env;
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.Kv;
+import net.shipilev.concurrency.torture.schema.result.Latency;
+import net.shipilev.concurrency.torture.schema.result.ObjectFactory;
+import net.shipilev.concurrency.torture.schema.result.Rate;
+import net.shipilev.concurrency.torture.schema.result.Result;
+import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrency.torture.schema.result.Timeout;
+import net.shipilev.concurrency.torture.schema.result.Window;
+import net.shipilev.concurrent.torture.engine.Delays;
+import net.shipilev.concurrent.torture.engine.WindowProfile;
+import net.shipilev.concurrent.torture.tests.ConcurrencyTest;
+import net.shipilev.concurrent.torture.util.Environment;
+import net.shipilev.concurrent.torture.util.LatencyHistogram;
+
+import javax.xml.bind.JAXBException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists and reports the results off the critical path.
+ *
+ * All the console output and the result processing are executed by a single background thread,
+ * in submission order. This keeps the console output ordered, while the next test is already
+ * warming up. Results are built here, and handed over to the {@link ResultSink} to persist
+ * and report them.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ResultWriter {
+
+    private final PrintWriter pw;
+    private final ResultSink sink;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int loops;
+    private final boolean shouldYield;
+    private final long seed;
+    private final boolean reshuffle;
+    private final Delays delays;
+    private final boolean search;
+    private final int window;
+    private final ExecutorMode executorMode;
+    private final int latencySampling;
+    private final String handoff;
+    private final boolean pad;
+
+    /**
+     * Creates the writer.
+     *
+     * @param opts options
+     * @param executor executor to use; null if writer should use its own
+     * @throws FileNotFoundException
+     * @throws JAXBException
+     */
+    public ResultWriter(Options opts, ExecutorService executor) throws FileNotFoundException, JAXBException {
+        this(opts, opts.getResultDest(), executor);
+    }
+
+    /**
+     * Creates the writer.
+     *
+     * @param opts options
+     * @param destDir directory to store the results in
+     * @param executor executor to use; null if writer should use its own
+     * @throws FileNotFoundException
+     * @throws JAXBException
+     */
+    public ResultWriter(Options opts, String destDir, ExecutorService executor) throws FileNotFoundException, JAXBException {
+        this(opts, executor, new ResultPublisher(opts, destDir));
+    }
+
+    /**
+     * Creates the writer publishing the results to the given sink.
+     * This is cheap, and suits the isolated runs which share the sink.
+     *
+     * @param opts options
+     * @param executor executor to use; null if writer should use its own
+     * @param sink sink to publish the results to
+     */
+    public ResultWriter(Options opts, ExecutorService executor, ResultSink sink) {
+        this.sink = sink;
+        pw = new PrintWriter(System.out, true);
+        loops = opts.getLoops();
+        shouldYield = opts.shouldYield();
+        seed = opts.getSeed();
+        reshuffle = opts.shouldReshuffle();
+        delays = opts.getDelays();
+        search = opts.shouldSearch();
+        window = opts.getWindow();
+        executorMode = opts.getExecutorMode();
+        latencySampling = opts.getLatencySampling();
+        handoff = opts.getHandoff();
+        pad = opts.shouldPad();
+
+        if (executor != null) {
+            this.executor = executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = newExecutor();
+            this.ownsExecutor = true;
+        }
+    }
+
+    /**
+     * Creates the executor suitable for writers.
+     * The executor can be shared between several writers to keep their output ordered.
+     *
+     * @return executor
+     */
+    public static ExecutorService newExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "result-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Waits for all pending output in the executor to complete.
+     *
+     * @param executor executor to shut down
+     * @throws InterruptedException
+     */
+    public static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public void print(final String s) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pw.print(s);
+                pw.flush();
+            }
+        });
+    }
+
+    public void println(final String s) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pw.println(s);
+            }
+        });
+    }
+
+    /**
+     * Persists and reports the results.
+     * This method returns immediately, the actual work is done in background.
+     *
+     * @param test test
+     * @param iterations observed states, per iteration
+     */
+    public void write(ConcurrencyTest test, List<Measurement> iterations) {
+        write(test, iterations, Collections.<Search.Finding>emptyList());
+    }
+
+    public void write(ConcurrencyTest test, List<Measurement> iterations, List<Search.Finding> findings) {
+        write(test, iterations, findings, null);
+    }
+
+    /**
+     * Persists and reports the results in background.
+     *
+     * @param test test
+     * @param iterations measured iterations, including warmup
+     * @param findings states first exposed by the search
+     * @param profile race window profile; null if window was not profiled
+     */
+    public void write(final ConcurrencyTest test, final List<Measurement> iterations, final List<Search.Finding> findings, final WindowProfile profile) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump(test, iterations, findings, profile);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Persists and reports the timed out test in background.
+     *
+     * @param test test
+     * @param iterations iterations completed before the timeout, including warmup
+     * @param stage what did not complete in time: "roles" for the test roles, "fork" for the forked VM
+     * @param limit time limit, ms
+     * @param dump file with the thread dump; null if dump is not available
+     */
+    public void timeout(final ConcurrencyTest test, final List<Measurement> iterations, final String stage, final long limit, final File dump) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Result result = build(test, iterations, Collections.<Search.Finding>emptyList(), null);
+                    result.setTimeout(toTimeout(stage, limit, dump));
+                    sink.publish(result);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Persists and reports the timed out test in background, when nothing but its name is known.
+     * The test is not instantiated, since that could be the very thing that hangs.
+     *
+     * @param testName test class name
+     * @param stage what did not complete in time, see {@link #timeout(ConcurrencyTest, List, String, long, File)}
+     * @param limit time limit, ms
+     * @param dump file with the thread dump; null if dump is not available
+     */
+    public void timeout(final String testName, final String stage, final long limit, final File dump) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ObjectFactory factory = new ObjectFactory();
+                    Result result = factory.createResult();
+                    result.setName(testName);
+                    result.setEnv(toEnv(factory, null));
+                    result.setTimeout(toTimeout(stage, limit, dump));
+                    sink.publish(result);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private Timeout toTimeout(String stage, long limit, File dump) {
+        Timeout t = new ObjectFactory().createTimeout();
+        t.setStage(stage);
+        t.setLimit(limit);
+        if (dump != null) {
+            t.setDump(dump.getPath());
+        }
+        return t;
+    }
+
+    public Result dump(ConcurrencyTest test, List<Measurement> iterations) {
+        return dump(test, iterations, Collections.<Search.Finding>emptyList());
+    }
+
+    public Result dump(ConcurrencyTest test, List<Measurement> iterations, List<Search.Finding> findings) {
+        return dump(test, iterations, findings, null);
+    }
+
+    /**
+     * Builds the result, and hands it over to the sink, in the calling thread.
+     * {@link #write(ConcurrencyTest, List, List, WindowProfile)} does the same in background.
+     *
+     * @param test test
+     * @param iterations measured iterations, including warmup
+     * @param findings states first exposed by the search
+     * @param profile race window profile; null if window was not profiled
+     * @return result
+     */
+    public Result dump(ConcurrencyTest test, List<Measurement> iterations, List<Search.Finding> findings, WindowProfile profile) {
+        Result result = build(test, iterations, findings, profile);
+        sink.publish(result);
+        return result;
+    }
+
+    private Result build(ConcurrencyTest test, List<Measurement> iterations, List<Search.Finding> findings, WindowProfile profile) {
+        ObjectFactory factory = new ObjectFactory();
+        Result result = factory.createResult();
+
+        result.setName(test.getClass().getName());
+
+        Multiset<Long> results = HashMultiset.create();
+        for (Measurement m : iterations) {
+            if (!m.isWarmup()) {
+                results.addAll(m.getStates());
+            }
+        }
+        result.getState().addAll(toStates(factory, test, results));
+
+        int index = 0;
+        for (Measurement m : iterations) {
+            Iteration it = factory.createIteration();
+            it.setIndex(index++);
+            it.setWarmup(m.isWarmup());
+            it.setTime(m.getTime());
+            it.setSamples(m.getStates().size());
+            it.getState().addAll(toStates(factory, test, m.getStates()));
+            result.getIteration().add(it);
+        }
+        result.getPhaseChange().addAll(PhaseChangeDetector.detect(result.getIteration()));
+        result.setRate(rate(factory, test, iterations));
+
+        for (Search.Finding f : findings) {
+            Discovery d = factory.createDiscovery();
+            d.setState(toId(test, f.getState()));
+            d.setRound(f.getRound());
+            d.setElapsed(f.getElapsed());
+            d.setSchedule(f.getSchedule().toString());
+            result.getDiscovery().add(d);
+        }
+
+        result.getLatency().addAll(toLatencies(factory, iterations));
+
+        if (profile != null) {
+            for (int b = 0; b < profile.size(); b++) {
+                Window w = factory.createWindow();
+                w.setFrom(profile.getFrom(b));
+                w.setTo(profile.getTo(b));
+                w.setSamples(profile.getBucket(b).size());
+                w.getState().addAll(toStates(factory, test, profile.getBucket(b)));
+                result.getWindow().add(w);
+            }
+        }
+
+        result.setEnv(toEnv(factory, profile));
+        return result;
+    }
+
+    private Env toEnv(ObjectFactory factory, WindowProfile profile) {
+        Map<String, String> props = Environment.getEnvironment();
+        props.put("harness.seed", String.valueOf(seed));
+        props.put("harness.reshuffle", String.valueOf(reshuffle));
+        props.put("harness.handoff", handoff);
+        props.put("harness.pad", String.valueOf(pad));
+        props.put("harness.delay", delays.toString());
+        props.put("harness.search", String.valueOf(search));
+        props.put("harness.executor", executorMode.toString());
+        props.put("harness.latency.sample", String.valueOf(latencySampling));
+        if (profile != null) {
+            props.put("harness.window", String.valueOf(window));
+        }
+        if (delays.isEnabled()) {
+            props.put("harness.delay.spinsPerNano", String.valueOf(Delays.getSpinsPerNano()));
+        }
+
+        Env env = factory.createEnv();
+        for (Map.Entry<String, String> entry : props.entrySet()) {
+            Kv kv = factory.createKv();
+            kv.setKey(entry.getKey());
+            kv.setValue(entry.getValue());
+            env.getProperty().add(kv);
+        }
+        return env;
+    }
+
+    private Rate rate(ObjectFactory factory, ConcurrencyTest test, List<Measurement> iterations) {
+        long samples = 0;
+        long time = 0;
+        for (Measurement m : iterations) {
+            if (!m.isWarmup()) {
+                samples += m.getStates().size();
+                time += m.getTime();
+            }
+        }
+
+        Rate rate = factory.createRate();
+        rate.setSamples(samples);
+        rate.setTime(time);
+        rate.setEngine(Calibration.engineFor(test));
+        if (search) {
+            // search changes the stride and wait strategy every round, there is no single peak to compare with
+            rate.setWait("search");
+        } else if (window > 0) {
+            // window profile runs the other engine, which the harness was not calibrated with
+            rate.setWait("window");
+        } else {
+            rate.setWait(shouldYield ? "yield" : "spin");
+            rate.setStride(loops);
+        }
+        return rate;
+    }
+
+    /**
+     * Summarizes handoff latencies over the measured iterations.
+     */
+    private List<Latency> toLatencies(ObjectFactory factory, List<Measurement> iterations) {
+        Map<String, LatencyHistogram> merged = new LinkedHashMap<String, LatencyHistogram>();
+        for (Measurement m : iterations) {
+            if (m.isWarmup()) {
+                continue;
+            }
+            for (Map.Entry<String, LatencyHistogram> e : m.getLatencies().entrySet()) {
+                LatencyHistogram h = merged.get(e.getKey());
+                if (h == null) {
+                    h = new LatencyHistogram();
+                    merged.put(e.getKey(), h);
+                }
+                h.add(e.getValue());
+            }
+        }
+
+        List<Latency> latencies = new ArrayList<Latency>();
+        for (Map.Entry<String, LatencyHistogram> e : merged.entrySet()) {
+            LatencyHistogram h = e.getValue();
+            if (h.getCount() == 0) {
+                continue;
+            }
+            Latency l = factory.createLatency();
+            l.setTransition(e.getKey());
+            l.setSamples(h.getCount());
+            l.setP50(h.getPercentile(0.5));
+            l.setP90(h.getPercentile(0.9));
+            l.setP99(h.getPercentile(0.99));
+            l.setP999(h.getPercentile(0.999));
+            l.setMax(h.getMax());
+            latencies.add(l);
+        }
+        return latencies;
+    }
+
+    private List<State> toStates(ObjectFactory factory, ConcurrencyTest test, Multiset<Long> results) {
+        List<State> states = new ArrayList<State>();
+        for (Long e : results.elementSet()) {
+            State state = factory.createState();
+            state.setId(toId(test, e));
+            state.setCount(results.count(e));
+            states.add(state);
+        }
+        return states;
+    }
+
+    private String toId(ConcurrencyTest test, long e) {
+        byte[] b = longToByteArr(e);
+        byte[] temp = new byte[test.resultSize()];
+        System.arraycopy(b, 0, temp, 0, test.resultSize());
+        return Arrays.toString(temp);
+    }
+
+    private byte[] longToByteArr(Long element) {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(element);
+        return buf.array();
+    }
+
+    /**
+     * Waits for the pending output of this writer.
+     *
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        if (ownsExecutor) {
+            shutdown(executor);
+        }
+    }
+
+}
@@ -18,33 +18,34 @@ package net.shipilev.concurrent.torture;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
-import net.shipilev.concurrency.torture.schema.result.Env;
-import net.shipilev.concurrency.torture.schema.result.Kv;
-import net.shipilev.concurrency.torture.schema.result.ObjectFactory;
-import net.shipilev.concurrency.torture.schema.result.Result;
-import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrent.torture.engine.EngineGenerator;
+import net.shipilev.concurrent.torture.engine.OneActorOneObserverEngine;
+import net.shipilev.concurrent.torture.engine.TwoActorsOneArbiterEngine;
+import net.shipilev.concurrent.torture.engine.WindowEngine;
+import net.shipilev.concurrent.torture.engine.WindowProfile;
 import net.shipilev.concurrent.torture.tests.ConcurrencyTest;
 import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
 import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
-import net.shipilev.concurrent.torture.util.Environment;
+import net.shipilev.concurrent.torture.util.LatencyHistogram;
+import net.shipilev.concurrent.torture.util.ThreadDumps;
+import net.shipilev.concurrent.torture.util.XorShift;
 
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Basic runner for concurrency tests.
@@ -52,36 +53,85 @@ import java.util.concurrent.TimeUnit;
  * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
  */
 public class Runner {
-    private final File destDir;
     private final int time;
-    private final int loops;
     private final boolean shouldYield;
     private final int wtime;
     private final int witers;
+    private final int iters;
+    private final boolean padded;
+    private final boolean ordered;
+    private final long seed;
+    private final Schedule schedule;
+    private final boolean search;
+    private final int window;
+    private final ExecutorMode executorMode;
+    private final int latencySampling;
+    private final int hangTimeout;
+    private final String resultDir;
 
     private final ExecutorService pool;
-    private volatile boolean isStopped;
+    private final EngineGenerator generator;
 
-    private final PrintWriter pw;
-    private final TextResultPrinter printer;
+    private final ResultWriter writer;
+    private final RunnerMonitor monitor;
+
+    /**
+     * Handoff latencies accumulated since the last {@link #takeLatencies()}.
+     */
+    private final Map<String, LatencyHistogram> latencies;
 
     public Runner(Options opts) throws FileNotFoundException, JAXBException {
-        printer = new TextResultPrinter(opts);
-        pw = new PrintWriter(System.out, true);
-        destDir = new File(opts.getResultDest());
-        destDir.mkdirs();
+        this(opts, null);
+    }
+
+    /**
+     * Creates the runner.
+     *
+     * @param opts options
+     * @param output executor for the result writer; null if runner should use its own
+     * @throws FileNotFoundException
+     * @throws JAXBException
+     */
+    public Runner(Options opts, ExecutorService output) throws FileNotFoundException, JAXBException {
+        this(opts, output, new ResultPublisher(opts, opts.getResultDest()));
+    }
+
+    /**
+     * Creates the runner publishing the results to the given sink.
+     *
+     * @param opts options
+     * @param output executor for the result writer; null if runner should use its own
+     * @param sink sink to publish the results to
+     */
+    public Runner(Options opts, ExecutorService output, ResultSink sink) {
+        writer = new ResultWriter(opts, output, sink);
 
         time = opts.getTime();
-        loops = opts.getLoops();
         wtime = opts.getWarmupTime();
         witers = opts.getWarmupIterations();
+        iters = opts.getIterations();
+        padded = opts.shouldPad();
+        ordered = opts.isOrderedHandoff();
+        seed = opts.getSeed();
+        schedule = new Schedule(opts);
+        search = opts.shouldSearch();
+        window = opts.getWindow();
         shouldYield = opts.shouldYield();
-        pool = Executors.newCachedThreadPool();
+        executorMode = opts.getExecutorMode();
+        latencySampling = opts.getLatencySampling();
+        hangTimeout = opts.getHangTimeout();
+        resultDir = opts.getResultDest();
+        latencies = new LinkedHashMap<String, LatencyHistogram>();
+        pool = executorMode.newExecutor();
+        generator = new EngineGenerator(opts.shouldSpecialize());
+        monitor = new RunnerMonitor();
+        monitor.register();
     }
 
     public void ensureThreads(int threads) {
-        if (Runtime.getRuntime().availableProcessors() < threads && !shouldYield) {
-            pw.println("WARNING: This test should be run with at least " + threads + " CPUs to get reliable results, or enable yielding");
+        if (executorMode.getParallelism() < threads && !shouldYield) {
+            writer.println("WARNING: This test should be run with at least " + threads + " CPUs" +
+                    (executorMode.isVirtual() ? " and carriers" : "") + " to get reliable results, or enable yielding");
         }
     }
 
@@ -95,363 +145,388 @@ public class Runner {
      * @throws ExecutionException
      */
     public <S> void run(OneActorOneObserverTest<S> test) throws ExecutionException, InterruptedException {
-        pw.println("Running " + test.getClass().getName());
+        writer.println("Running " + test.getClass().getName());
         ensureThreads(3);
+        monitor.startTest(test.getClass().getName(), (long) witers * wtime + time);
+        latencies.clear();
+
+        List<Measurement> iterations = new ArrayList<Measurement>();
+        try {
+            measure(test, iterations);
+        } catch (HangException e) {
+            timeout(test, iterations, e);
+        }
+    }
+
+    private <S> void measure(OneActorOneObserverTest<S> test, List<Measurement> iterations) throws ExecutionException, InterruptedException {
+        long testSeed = testSeed(test);
+        int index = 0;
 
         if (witers > 0) {
-            pw.print("Warmup ");
-            for (int c = 0; c < witers; c++) {
-                pw.print(".");
-                pw.flush();
-                run(test, wtime, true);
+            writer.print("Warmup ");
+            for (int c = 0; c < witers && !monitor.isSkipped(); c++) {
+                writer.print(".");
+                monitor.startIteration(index, true);
+                Multiset<Long> states = run(test, wtime, XorShift.seed(testSeed, index++));
+                iterations.add(new Measurement(true, wtime, states, takeLatencies()));
             }
-            pw.println();
+            writer.println("");
         }
 
-        run(test, time, false);
-    }
+        if (window > 0) {
+            monitor.startIteration(index, false);
+            WindowProfile profile = profile(test, XorShift.seed(testSeed, index++));
+            iterations.add(new Measurement(false, time, profile.getStates()));
+            monitor.endTest();
+            writer.write(test, iterations, Collections.<Search.Finding>emptyList(), profile);
+            return;
+        }
 
-    private <S> void run(final OneActorOneObserverTest<S> test, int time, boolean dryRun) throws InterruptedException, ExecutionException {
-        final SingleSharedStateHolder<S> holder = new SingleSharedStateHolder<S>();
+        if (search) {
+            Search s = new Search(time, XorShift.seed(testSeed, index++), warmupStates(iterations));
+            monitor.startIteration(index, false);
+            Multiset<Long> states = search(test, s);
+            iterations.add(new Measurement(false, time, states, takeLatencies()));
+            monitor.endTest();
+            writer.write(test, iterations, s.getFindings());
+            return;
+        }
 
-        // current should be null so that injector could inject the first instance
-        holder.current = null;
+        int itime = (iters > 0) ? Math.max(1, time / iters) : 0;
+        if (iters > 1) {
+            writer.print("Measurement ");
+        }
+        for (int c = 0; c < iters && !monitor.isSkipped(); c++) {
+            if (iters > 1) {
+                writer.print(".");
+            }
+            monitor.startIteration(index, false);
+            Multiset<Long> states = run(test, itime, XorShift.seed(testSeed, index++));
+            iterations.add(new Measurement(false, itime, states, takeLatencies()));
+        }
+        if (iters > 1) {
+            writer.println("");
+        }
 
-        isStopped = false;
+        monitor.endTest();
+        writer.write(test, iterations);
+    }
 
-        /*
-           Injector thread: injects new states until interrupted.
-         */
-        Future<?> s1 = pool.submit(new Runnable() {
+    private <S> Multiset<Long> run(OneActorOneObserverTest<S> test, int time, long seed) throws InterruptedException, ExecutionException {
+        return run(test, time, schedule, seed);
+    }
+
+    /**
+     * Profiles the race window, sweeping the observer offsets relative to actor.
+     *
+     * @param test test to run
+     * @param seed seed for the offsets
+     * @param <S> test state object type
+     * @return profile
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private <S> WindowProfile profile(final OneActorOneObserverTest<S> test, long seed) throws InterruptedException, ExecutionException {
+        final WindowEngine<S> engine = new WindowEngine<S>(test, window, shouldYield, seed);
+
+        Future<?> a = pool.submit(new Runnable() {
             public void run() {
-                while (!isStopped) {
-
-                    @SuppressWarnings("unchecked")
-                    S[] newStride = (S[]) new Object[loops];
-
-                    for (int c = 0; c < loops; c++) {
-                        newStride[c] = test.newState();
-                    }
-
-                    while (holder.current != null) {
-                        if (isStopped) {
-                            return;
-                        }
-                        if (shouldYield) Thread.yield();
-                    }
-                    holder.current = newStride;
-                }
+                engine.actor();
             }
         });
 
-        /*
-           Actor 1 thread.
-           The rationale for its loop is as follows:
-              a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
-              b. Thread should not observe the state object more than once
-         */
-        Future<?> a1 = pool.submit(new Runnable() {
+        Future<?> o = pool.submit(new Runnable() {
             public void run() {
-                S[] last = null;
-
-                int[] indices = generatePermutation(loops);
-
-                while (!isStopped) {
-                    S[] cur = holder.current;
-                    if (cur != null && last != cur) {
-                        for (int l = 0; l < loops; l++) {
-                            test.actor1(cur[indices[l]]);
-                        }
-                        last = cur;
-                    } else {
-                        if (shouldYield) Thread.yield();
-                    }
-                }
+                engine.observer();
             }
         });
 
-        /*
-          Observer thread.
-          The rationale for its loop is as follows:
-              a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
-              b. Thread should not observe the state object more than once
-              c. The overhead of doing the work inside the inner loop should be small
-              d. $state is getting reused, so we end up marshalling it to long to count properly
-        */
-        Future<Multiset<Long>> res = pool.submit(new Callable<Multiset<Long>>() {
-            public Multiset<Long> call() {
-                Multiset<Long> set = HashMultiset.create();
+        monitor.await(time);
 
-                S[] last = null;
-                byte[] state = new byte[8];
-                byte[][] results = new byte[loops][];
+        engine.stop();
+        awaitRoles(test, a, o);
 
-                int[] indices = generatePermutation(loops);
+        WindowProfile profile = engine.getProfile();
+        monitor.endRun(profile.getStates());
+        return profile;
+    }
 
-                while (!isStopped) {
-                    S[] cur = holder.current;
+    private <S> Multiset<Long> search(OneActorOneObserverTest<S> test, Search search) throws InterruptedException, ExecutionException {
+        Multiset<Long> states = HashMultiset.create();
+        writer.print("Search ");
+        for (int c = 0; c < search.getRounds() && !monitor.isSkipped(); c++) {
+            writer.print(".");
+            Schedule s = search.next();
+            long start = System.nanoTime();
+            Multiset<Long> round = run(test, Search.ROUND_TIME, s, search.getRoundSeed());
+            search.update(s, round, System.nanoTime() - start);
+            states.addAll(round);
+        }
+        writer.println("");
+        return states;
+    }
 
-                    if (cur != null && last != cur) {
-                        for (int l = 0; l < loops; l++) {
-                            int index = indices[l];
-                            test.observe(cur[index], state);
-                            results[index] = new byte[8];
-                            System.arraycopy(state, 0, results[index], 0, 8);
-                        }
+    /**
+     * Runs the test once with given schedule.
+     *
+     * @param test test to run
+     * @param time time to run, ms
+     * @param schedule schedule
+     * @param seed seed for the access order and the injected delays
+     * @param <S> test state object type
+     * @return observed states
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    <S> Multiset<Long> run(final OneActorOneObserverTest<S> test, int time, Schedule schedule, long seed) throws InterruptedException, ExecutionException {
+        final OneActorOneObserverEngine<S> engine = generator.newEngine(test, schedule.getLoops(), schedule.shouldYield(), padded, ordered, seed, schedule.shouldReshuffle(), schedule.getDelays(), latencySampling);
+        monitor.startRun(engine.getProgress());
 
-                        last = cur;
+        Future<?> s1 = pool.submit(new Runnable() {
+            public void run() {
+                engine.injector();
+            }
+        });
 
-                        for (int i = 0; i < loops; i++) {
-                            set.add(byteArrToLong(results[i]));
-                        }
+        Future<?> a1 = pool.submit(new Runnable() {
+            public void run() {
+                engine.actor1();
+            }
+        });
 
-                        // let others proceed
-                        holder.current = null;
-                    } else {
-                        if (shouldYield) Thread.yield();
-                    }
-                }
-                return set;
+        Future<Multiset<Long>> res = pool.submit(new Callable<Multiset<Long>>() {
+            public Multiset<Long> call() {
+                return engine.observer();
             }
         });
 
-        TimeUnit.MILLISECONDS.sleep(time);
+        monitor.await(time);
 
-        isStopped = true;
-        a1.get();
-        s1.get();
-        res.get();
+        engine.stop();
+        awaitRoles(test, s1, a1, res);
 
-        if (!dryRun) {
-            Result r = dump(test, res.get());
-            judge(r);
-        }
+        Multiset<Long> states = res.get();
+        addLatencies(engine.getLatencies());
+        monitor.endRun(states);
+        return states;
     }
 
-    public static int[] generatePermutation(int len) {
-        int[] res = new int[len];
-        for (int i = 0; i < len; i++) {
-            res[i] = i;
-        }
-        return shuffle(res);
-    }
+    public <S> void run(final TwoActorsOneArbiterTest<S> test) throws InterruptedException, ExecutionException {
+        writer.println("Running " + test.getClass().getName());
+        ensureThreads(4);
+        monitor.startTest(test.getClass().getName(), (long) witers * wtime + time);
+        latencies.clear();
 
-    public static int[] shuffle(int[] arr) {
-        Random r = new Random();
-        int[] res = arr.clone();
-        for (int i = arr.length; i > 1; i--) {
-            int i1 = i-1;
-            int i2 = r.nextInt(i);
-            int t = res[i1];
-            res[i1] = res[i2];
-            res[i2] = t;
+        List<Measurement> iterations = new ArrayList<Measurement>();
+        try {
+            measure(test, iterations);
+        } catch (HangException e) {
+            timeout(test, iterations, e);
         }
-        return res;
     }
 
-    public <S> void run(final TwoActorsOneArbiterTest<S> test) throws InterruptedException, ExecutionException {
-        pw.println("Running " + test.getClass().getName());
-        ensureThreads(4);
+    private <S> void measure(TwoActorsOneArbiterTest<S> test, List<Measurement> iterations) throws InterruptedException, ExecutionException {
+        long testSeed = testSeed(test);
+        int index = 0;
 
         if (witers > 0) {
-            pw.print("Warmup ");
-            for (int c = 0; c < witers; c++) {
-                pw.print(".");
-                pw.flush();
-                run(test, wtime, true);
+            writer.print("Warmup ");
+            for (int c = 0; c < witers && !monitor.isSkipped(); c++) {
+                writer.print(".");
+                monitor.startIteration(index, true);
+                Multiset<Long> states = run(test, wtime, XorShift.seed(testSeed, index++));
+                iterations.add(new Measurement(true, wtime, states, takeLatencies()));
             }
-            pw.println();
+            writer.println("");
         }
 
-        run(test, time, false);
+        if (search) {
+            Search s = new Search(time, XorShift.seed(testSeed, index++), warmupStates(iterations));
+            monitor.startIteration(index, false);
+            Multiset<Long> states = search(test, s);
+            iterations.add(new Measurement(false, time, states, takeLatencies()));
+            monitor.endTest();
+            writer.write(test, iterations, s.getFindings());
+            return;
+        }
+
+        int itime = (iters > 0) ? Math.max(1, time / iters) : 0;
+        if (iters > 1) {
+            writer.print("Measurement ");
+        }
+        for (int c = 0; c < iters && !monitor.isSkipped(); c++) {
+            if (iters > 1) {
+                writer.print(".");
+            }
+            monitor.startIteration(index, false);
+            Multiset<Long> states = run(test, itime, XorShift.seed(testSeed, index++));
+            iterations.add(new Measurement(false, itime, states, takeLatencies()));
+        }
+        if (iters > 1) {
+            writer.println("");
+        }
+
+        monitor.endTest();
+        writer.write(test, iterations);
     }
 
-    public <S> void run(final TwoActorsOneArbiterTest<S> test, int time, boolean dryRun) throws InterruptedException, ExecutionException {
-        final TwoSharedStateHolder<S> holder = new TwoSharedStateHolder<S>();
+    private <S> Multiset<Long> run(TwoActorsOneArbiterTest<S> test, int time, long seed) throws InterruptedException, ExecutionException {
+        return run(test, time, schedule, seed);
+    }
 
-        // need to initialize so that actor thread will not NPE.
-        // once injector catches up, it will push fresh state objects
-        holder.current = test.newState();
+    private <S> Multiset<Long> search(TwoActorsOneArbiterTest<S> test, Search search) throws InterruptedException, ExecutionException {
+        Multiset<Long> states = HashMultiset.create();
+        writer.print("Search ");
+        for (int c = 0; c < search.getRounds() && !monitor.isSkipped(); c++) {
+            writer.print(".");
+            Schedule s = search.next();
+            long start = System.nanoTime();
+            Multiset<Long> round = run(test, Search.ROUND_TIME, s, search.getRoundSeed());
+            search.update(s, round, System.nanoTime() - start);
+            states.addAll(round);
+        }
+        writer.println("");
+        return states;
+    }
 
-        isStopped = false;
+    /**
+     * Runs the test once with given schedule.
+     *
+     * @param test test to run
+     * @param time time to run, ms
+     * @param schedule schedule; access order knobs are not applicable
+     * @param seed seed for the injected delays
+     * @param <S> test state object type
+     * @return observed states
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    <S> Multiset<Long> run(final TwoActorsOneArbiterTest<S> test, int time, Schedule schedule, long seed) throws InterruptedException, ExecutionException {
+        final TwoActorsOneArbiterEngine<S> engine = generator.newEngine(test, schedule.getLoops(), schedule.shouldYield(), padded, ordered, seed, schedule.getDelays(), latencySampling);
+        monitor.startRun(engine.getProgress());
 
-         /*
-           Injector thread: injects new states until interrupted.
-           There are an addi.tional constraints:
-              a. If actors results are not yet consumed, do not push the new state.
-                 This will effectively block actors from working until arbiter consumes their result.
-         */
         Future<?> s1 = pool.submit(new Runnable() {
             public void run() {
-                while (!isStopped) {
-                    while (holder.t1 != null && holder.t2 != null && !isStopped)
-                        if (shouldYield) Thread.yield();
-                    holder.current = test.newState();
-                }
+                engine.injector();
             }
         });
 
-        /*
-           Actor 1 thread.
-           The rationale for its loop is as follows:
-              a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
-              b. Thread should not observe the state object more than once
-              c. Once thread is done with its work, it publishes the reference to state object for arbiter
-         */
         Future<?> a1 = pool.submit(new Runnable() {
             public void run() {
-                S last = null;
-
-                while (!isStopped) {
-                    int l = 0;
-                    while (l < loops) {
-                        S cur = holder.current;
-                        if (last != cur) {
-                            test.actor1(cur);
-                            holder.t1 = cur;
-                            last = cur;
-                        } else {
-                            if (shouldYield) Thread.yield();
-                        }
-                        l++;
-                    }
-                }
+                engine.actor1();
             }
         });
 
-        /*
-           Actor 2 thread.
-           The rationale for its loop is as follows:
-              a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
-              b. Thread should not observe the state object more than once
-              c. Once thread is done with its work, it publishes the reference to state object for arbiter
-         */
         Future<?> a2 = pool.submit(new Runnable() {
             public void run() {
-                S last = null;
-                while (!isStopped) {
-                    int l = 0;
-                    while (l < loops) {
-                        S cur = holder.current;
-                        if (last != cur) {
-                            test.actor2(cur);
-                            last = cur;
-                            holder.t2 = cur;
-                        } else {
-                            if (shouldYield) Thread.yield();
-                        }
-                        l++;
-                    }
-                }
+                engine.actor2();
             }
         });
 
-        /*
-          Arbiter thread.
-          The rationale for its loop is as follows:
-              a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
-              b. Thread should not observe the state object more than once
-              c. The overhead of doing the work inside the inner loop should be small
-              d. $state is getting reused, so we end up marshalling it to long to count properly
-              e. Arbiter waits until both actors have finished their work and published their results
-        */
         Future<Multiset<Long>> res = pool.submit(new Callable<Multiset<Long>>() {
             public Multiset<Long> call() {
-                byte[] res = new byte[8];
-
-                Multiset<Long> set = HashMultiset.create();
-
-                byte[][] results = new byte[loops][];
-                while (!isStopped) {
-                    int c = 0;
-                    int l = 0;
-                    while (l < loops) {
-                        S s1 = holder.t1;
-                        S s2 = holder.t2;
-                        if (s1 == s2 && s1 != null) {
-                            test.arbitrate(s1, res);
-                            results[c] = new byte[8];
-                            System.arraycopy(res, 0, results[c], 0, 8);
-                            c++;
-                            holder.t1 = null;
-                            holder.t2 = null;
-                        } else {
-                            if (shouldYield) Thread.yield();
-                        }
-                        l++;
-                    }
-
-                    for (int i = 0; i < c; i++) {
-                        set.add(byteArrToLong(results[i]));
-                    }
-                }
-                return set;
+                return engine.arbiter();
             }
         });
 
-        TimeUnit.MILLISECONDS.sleep(time);
+        monitor.await(time);
 
-        isStopped = true;
-        s1.get();
-        a1.get();
-        a2.get();
-        res.get();
+        engine.stop();
+        awaitRoles(test, s1, a1, a2, res);
 
-        if (!dryRun) {
-            Result r = dump(test, res.get());
-            judge(r);
-        }
+        Multiset<Long> states = res.get();
+        addLatencies(engine.getLatencies());
+        monitor.endRun(states);
+        return states;
     }
 
-    private Result dump(ConcurrencyTest test, Multiset<Long> results) {
-        ObjectFactory factory = new ObjectFactory();
-        Result result = factory.createResult();
-
-        result.setName(test.getClass().getName());
-
-        for (Long e : results.elementSet()) {
-            byte[] b = longToByteArr(e);
-            byte[] temp = new byte[test.resultSize()];
-            System.arraycopy(b, 0, temp, 0, test.resultSize());
-            b = temp;
-
-            State state = factory.createState();
-            state.setId(Arrays.toString(b));
-            state.setCount(results.count(e));
-            result.getState().add(state);
+    /**
+     * Waits for the stopped roles to complete.
+     * The roles still running after the hang timeout are considered hung: the threads are dumped,
+     * and the roles are interrupted. Roles ignoring the interrupt keep running, since there is no
+     * safe way to stop the thread, but the pool starts the fresh threads for the following tests.
+     *
+     * @param test test
+     * @param roles roles to wait for
+     * @throws HangException if roles had not completed in time
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private void awaitRoles(Object test, Future<?>... roles) throws InterruptedException, ExecutionException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hangTimeout);
+        for (Future<?> role : roles) {
+            if (hangTimeout <= 0) {
+                role.get();
+                continue;
+            }
+            try {
+                role.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                File dump = new File(resultDir + "/logs/" + test.getClass().getName() + ".threads.txt");
+                try {
+                    ThreadDumps.write(dump);
+                } catch (IOException ioe) {
+                    writer.println("WARNING: Unable to dump threads: " + ioe.getMessage());
+                    dump = null;
+                }
+                for (Future<?> r : roles) {
+                    r.cancel(true);
+                }
+                throw new HangException(dump);
+            }
         }
+    }
 
-        Env env = factory.createEnv();
-        for (Map.Entry<String, String> entry : Environment.getEnvironment().entrySet()) {
-            Kv kv = factory.createKv();
-            kv.setKey(entry.getKey());
-            kv.setValue(entry.getValue());
-            env.getProperty().add(kv);
-        }
-        result.setEnv(env);
+    /**
+     * Records the hung test, keeping the iterations completed before it hung.
+     */
+    private void timeout(ConcurrencyTest test, List<Measurement> iterations, HangException e) {
+        monitor.endTest();
+        writer.println("");
+        writer.println("TIMEOUT: Roles are still running " + hangTimeout + " ms after the run had ended, giving up on the test");
+        writer.timeout(test, iterations, "roles", hangTimeout, e.getDump());
+    }
 
-        try {
-            String packageName = Result.class.getPackage().getName();
-            JAXBContext jc = JAXBContext.newInstance(packageName);
-            Marshaller marshaller = jc.createMarshaller();
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            marshaller.marshal(result, new File(destDir + "/" + test.getClass().getName() + ".xml"));
-        } catch (Throwable e) {
-            e.printStackTrace();
+    private void addLatencies(Map<String, LatencyHistogram> run) {
+        for (Map.Entry<String, LatencyHistogram> e : run.entrySet()) {
+            LatencyHistogram h = latencies.get(e.getKey());
+            if (h == null) {
+                h = new LatencyHistogram();
+                latencies.put(e.getKey(), h);
+            }
+            h.add(e.getValue());
         }
+    }
 
+    /**
+     * Answers the handoff latencies accumulated by the runs since the last call.
+     *
+     * @return transition name -> latency histogram
+     */
+    private Map<String, LatencyHistogram> takeLatencies() {
+        Map<String, LatencyHistogram> result = new LinkedHashMap<String, LatencyHistogram>(latencies);
+        latencies.clear();
         return result;
     }
 
-    private void judge(Result result) {
-        printer.parse(pw, result);
-        pw.println();
+    private static Multiset<Long> warmupStates(List<Measurement> iterations) {
+        Multiset<Long> states = HashMultiset.create();
+        for (Measurement m : iterations) {
+            states.addAll(m.getStates());
+        }
+        return states;
     }
 
-    private byte[] longToByteArr(Long element) {
-        ByteBuffer buf = ByteBuffer.allocate(8);
-        buf.putLong(element);
-        return buf.array();
+    /**
+     * Derives the seed for the test from the run seed.
+     * The test seed does not depend on the other tests in the run, so that the single test
+     * could be re-run with the same seed.
+     *
+     * @param test test
+     * @return test seed
+     */
+    private long testSeed(Object test) {
+        return XorShift.seed(seed, test.getClass().getName().hashCode());
     }
 
     public static long byteArrToLong(byte[] b) {
@@ -459,18 +534,31 @@ public class Runner {
         return buf.getLong();
     }
 
-    public void close() throws FileNotFoundException, JAXBException {
-        pool.shutdownNow();
-    }
+    /**
+     * Roles had not completed in time.
+     */
+    private static class HangException extends ExecutionException {
+        private static final long serialVersionUID = 1L;
+
+        private final File dump;
+
+        HangException(File dump) {
+            super("Roles had not completed in time");
+            this.dump = dump;
+        }
 
-    public static class SingleSharedStateHolder<S> {
-        volatile S[] current;
+        /**
+         * @return thread dump; null if not available
+         */
+        File getDump() {
+            return dump;
+        }
     }
 
-    public static class TwoSharedStateHolder<S> {
-        volatile S current;
-        volatile S t1;
-        volatile S t2;
+    public void close() throws FileNotFoundException, JAXBException, InterruptedException {
+        pool.shutdownNow();
+        monitor.unregister();
+        writer.close();
     }
 
 }
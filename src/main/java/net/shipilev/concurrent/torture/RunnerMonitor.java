@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.engine.Progress;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Publishes the progress of the running tests over JMX.
+ *
+ * Runner updates the monitor between the iterations, and engines publish their counters
+ * in {@link Progress}. Attribute reads never take the locks the running test could contend on.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class RunnerMonitor implements RunnerMonitorMXBean {
+
+    public static final String NAME = "net.shipilev.concurrent.torture:type=Runner";
+
+    private static final Progress NO_PROGRESS = new Progress(new String[0]);
+
+    private volatile String test;
+    private volatile int iteration;
+    private volatile boolean warmup;
+    private volatile long testStart;
+    private volatile long testDuration;
+    private volatile long runStart;
+    private volatile Progress progress = NO_PROGRESS;
+    private volatile long completedSamples;
+    private volatile int completedDistinct;
+    private volatile boolean skipped;
+
+    // only touched by the runner thread
+    private final Set<Long> seen = new HashSet<Long>();
+
+    /**
+     * Registers the monitor with the platform MBean server, replacing the stale one, if any.
+     * Monitoring is optional, so failures are only reported.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("WARNING: Unable to register the monitor: " + e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(new ObjectName(NAME));
+        } catch (InstanceNotFoundException e) {
+            // already replaced by another runner
+        } catch (JMException e) {
+            System.err.println("WARNING: Unable to unregister the monitor: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runner: test is started.
+     *
+     * @param name test name
+     * @param duration expected test duration, ms
+     */
+    void startTest(String name, long duration) {
+        seen.clear();
+        completedSamples = 0;
+        completedDistinct = 0;
+        progress = NO_PROGRESS;
+        iteration = 0;
+        warmup = false;
+        skipped = false;
+        testDuration = duration;
+        testStart = System.currentTimeMillis();
+        test = name;
+    }
+
+    /**
+     * Runner: next iteration is about to start.
+     *
+     * @param index iteration index
+     * @param isWarmup whether iteration is warmup
+     */
+    void startIteration(int index, boolean isWarmup) {
+        iteration = index;
+        warmup = isWarmup;
+    }
+
+    /**
+     * Runner: engine is started.
+     *
+     * @param p engine progress
+     */
+    void startRun(Progress p) {
+        runStart = System.nanoTime();
+        progress = p;
+    }
+
+    /**
+     * Runner: engine is finished.
+     *
+     * @param states states observed by engine
+     */
+    void endRun(Multiset<Long> states) {
+        seen.addAll(states.elementSet());
+        completedSamples += states.size();
+        completedDistinct = seen.size();
+        progress = NO_PROGRESS;
+    }
+
+    void endTest() {
+        test = null;
+        progress = NO_PROGRESS;
+    }
+
+    /**
+     * Runner: waits for the run to complete, or for the test to be skipped.
+     *
+     * @param time time to wait, ms
+     * @throws InterruptedException
+     */
+    synchronized void await(long time) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + time;
+        long left = time;
+        while (!skipped && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+    }
+
+    boolean isSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public synchronized void skipTest() {
+        skipped = true;
+        notifyAll();
+    }
+
+    @Override
+    public String getTest() {
+        return test;
+    }
+
+    @Override
+    public int getIteration() {
+        return iteration;
+    }
+
+    @Override
+    public boolean isWarmup() {
+        return warmup;
+    }
+
+    @Override
+    public long getElapsed() {
+        return (test == null) ? 0 : System.currentTimeMillis() - testStart;
+    }
+
+    @Override
+    public long getRemaining() {
+        return (test == null) ? 0 : Math.max(0, testDuration - getElapsed());
+    }
+
+    @Override
+    public long getSamples() {
+        return completedSamples + progress.getSamples();
+    }
+
+    @Override
+    public double getSamplesPerSecond() {
+        Progress p = progress;
+        long time = System.nanoTime() - runStart;
+        return (p == NO_PROGRESS || time <= 0) ? 0 : p.getSamples() * 1e9 / time;
+    }
+
+    @Override
+    public int getDistinctOutcomes() {
+        // states seen by the current run only are not merged yet, this is the lower bound
+        return (int) Math.max(completedDistinct, progress.getDistinct());
+    }
+
+    @Override
+    public Map<String, Double> getSpinRatios() {
+        Progress p = progress;
+        Map<String, Double> ratios = new LinkedHashMap<String, Double>();
+        String[] roles = p.getRoles();
+        for (int r = 0; r < roles.length; r++) {
+            ratios.put(roles[r], p.getSpinRatio(r));
+        }
+        return ratios;
+    }
+
+}
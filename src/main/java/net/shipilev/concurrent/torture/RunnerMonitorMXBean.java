@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import java.util.Map;
+
+/**
+ * Live view of the running tests.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ * @see RunnerMonitor
+ */
+public interface RunnerMonitorMXBean {
+
+    /**
+     * @return current test name; null if none is running
+     */
+    String getTest();
+
+    /**
+     * @return current iteration, including the warmup ones
+     */
+    int getIteration();
+
+    boolean isWarmup();
+
+    /**
+     * @return time since the test started, ms
+     */
+    long getElapsed();
+
+    /**
+     * @return estimated time until the test completes, ms
+     */
+    long getRemaining();
+
+    /**
+     * @return samples collected by the test so far
+     */
+    long getSamples();
+
+    /**
+     * @return sample rate within the current iteration, samples/sec
+     */
+    double getSamplesPerSecond();
+
+    /**
+     * @return distinct outcomes observed by the test so far
+     */
+    int getDistinctOutcomes();
+
+    /**
+     * @return share of idle spins in the loop iterations, per role
+     */
+    Map<String, Double> getSpinRatios();
+
+    /**
+     * Stops the current test early. The results collected so far are still reported.
+     */
+    void skipTest();
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import net.shipilev.concurrent.torture.engine.Delays;
+
+/**
+ * Timing knobs for a single test run.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Schedule {
+
+    private final int loops;
+    private final boolean shouldYield;
+    private final boolean reshuffle;
+    private final Delays delays;
+
+    public Schedule(int loops, boolean shouldYield, boolean reshuffle, Delays delays) {
+        this.loops = loops;
+        this.shouldYield = shouldYield;
+        this.reshuffle = reshuffle;
+        this.delays = delays;
+    }
+
+    public Schedule(Options opts) {
+        this(opts.getLoops(), opts.shouldYield(), opts.shouldReshuffle(), opts.getDelays());
+    }
+
+    /**
+     * @return stride size
+     */
+    public int getLoops() {
+        return loops;
+    }
+
+    public boolean shouldYield() {
+        return shouldYield;
+    }
+
+    public boolean shouldReshuffle() {
+        return reshuffle;
+    }
+
+    public Delays getDelays() {
+        return delays;
+    }
+
+    @Override
+    public String toString() {
+        return "stride " + loops + ", " +
+                (shouldYield ? "yield" : "spin") + ", " +
+                (reshuffle ? "reshuffled" : "fixed order") + ", " +
+                (delays.isEnabled() ? delays + " delays" : "no delays");
+    }
+
+}
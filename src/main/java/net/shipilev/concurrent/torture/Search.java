@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.engine.Delays;
+import net.shipilev.concurrent.torture.util.XorShift;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feedback-driven search over the schedule knobs.
+ *
+ * The measurement time is split into short rounds. Every round runs with the schedule picked
+ * by epsilon-greedy bandit, which is kept separately for every knob. The round is rewarded for
+ * the states never seen before, for the rare states, and for the distinct states, all per second
+ * of the round. Hence, the settings exposing the interesting states are picked more often.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Search {
+
+    /**
+     * Round time, ms.
+     */
+    public static final int ROUND_TIME = 50;
+
+    private static final double EPSILON = 0.2;
+
+    /**
+     * States with lower share of all samples so far are considered rare.
+     */
+    private static final double RARE_SHARE = 0.001;
+
+    private static final double NEW_WEIGHT = 100;
+    private static final double RARE_WEIGHT = 10;
+
+    private static final int[] STRIDES = {1, 10, 100, 1000};
+    private static final boolean[] YIELDS = {false, true};
+    private static final boolean[] RESHUFFLES = {false, true};
+    private static final Delays[] DELAYS = {Delays.NONE, Delays.parse("log:100"), Delays.parse("log:1000"), Delays.parse("log:10000")};
+
+    private final Knob strides = new Knob(STRIDES.length);
+    private final Knob yields = new Knob(YIELDS.length);
+    private final Knob reshuffles = new Knob(RESHUFFLES.length);
+    private final Knob delays = new Knob(DELAYS.length);
+
+    private final int rounds;
+    private final long seed;
+    private final Multiset<Long> seen;
+    private final List<Finding> findings;
+    private long rnd;
+    private int round;
+    private long elapsed;
+
+    /**
+     * Creates the search.
+     *
+     * @param time total time for the search, ms
+     * @param seed seed for knob choices
+     * @param seen states already seen, e.g. during the warmup
+     */
+    public Search(int time, long seed, Multiset<Long> seen) {
+        this.rounds = Math.max(1, time / ROUND_TIME);
+        this.seed = seed;
+        this.rnd = XorShift.seed(seed, 0);
+        this.seen = HashMultiset.create(seen);
+        this.findings = new ArrayList<Finding>();
+    }
+
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * @return seed for the access order and the delays in the next round
+     */
+    public long getRoundSeed() {
+        return XorShift.seed(seed, round + 1);
+    }
+
+    /**
+     * @return the schedule for the next round
+     */
+    public Schedule next() {
+        return new Schedule(
+                STRIDES[strides.choose()],
+                YIELDS[yields.choose()],
+                RESHUFFLES[reshuffles.choose()],
+                DELAYS[delays.choose()]);
+    }
+
+    /**
+     * Rewards the schedule for the states it exposed.
+     *
+     * @param schedule schedule of the round, as answered by {@link #next()}
+     * @param states states observed in the round
+     * @param time actual round time, ns
+     */
+    public void update(Schedule schedule, Multiset<Long> states, long time) {
+        long total = seen.size() + states.size();
+
+        int newStates = 0;
+        int rareStates = 0;
+        for (Long s : states.elementSet()) {
+            int before = seen.count(s);
+            if (before == 0) {
+                newStates++;
+                findings.add(new Finding(s, round, elapsed / 1000000, schedule));
+            }
+            if ((double) (before + states.count(s)) / total < RARE_SHARE) {
+                rareStates++;
+            }
+        }
+        seen.addAll(states);
+
+        double reward = (NEW_WEIGHT * newStates + RARE_WEIGHT * rareStates + states.elementSet().size()) * 1e9 / Math.max(1, time);
+
+        strides.reward(reward);
+        yields.reward(reward);
+        reshuffles.reward(reward);
+        delays.reward(reward);
+
+        round++;
+        elapsed += time;
+    }
+
+    /**
+     * @return states first exposed by the search, in the order of discovery
+     */
+    public List<Finding> getFindings() {
+        return findings;
+    }
+
+    /**
+     * Epsilon-greedy bandit over the values of a single knob.
+     * Every value is tried at least once before the bandit starts to exploit.
+     */
+    private class Knob {
+        private final double[] values;
+        private final int[] pulls;
+        private int last;
+
+        private Knob(int size) {
+            values = new double[size];
+            pulls = new int[size];
+        }
+
+        private int choose() {
+            rnd = XorShift.next(rnd);
+            int start = XorShift.bounded(rnd, values.length);
+            for (int i = 0; i < values.length; i++) {
+                int c = (start + i) % values.length;
+                if (pulls[c] == 0) {
+                    return last = c;
+                }
+            }
+
+            rnd = XorShift.next(rnd);
+            if ((rnd >>> 11) * 0x1.0p-53 < EPSILON) {
+                return last = start;
+            }
+
+            int best = 0;
+            for (int c = 1; c < values.length; c++) {
+                if (values[c] > values[best]) {
+                    best = c;
+                }
+            }
+            return last = best;
+        }
+
+        private void reward(double reward) {
+            pulls[last]++;
+            values[last] += (reward - values[last]) / pulls[last];
+        }
+    }
+
+    /**
+     * State first exposed by the search.
+     */
+    public static class Finding {
+        private final long state;
+        private final int round;
+        private final long elapsed;
+        private final Schedule schedule;
+
+        public Finding(long state, int round, long elapsed, Schedule schedule) {
+            this.state = state;
+            this.round = round;
+            this.elapsed = elapsed;
+            this.schedule = schedule;
+        }
+
+        public long getState() {
+            return state;
+        }
+
+        public int getRound() {
+            return round;
+        }
+
+        /**
+         * @return search time before the round, ms
+         */
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public Schedule getSchedule() {
+            return schedule;
+        }
+    }
+
+}
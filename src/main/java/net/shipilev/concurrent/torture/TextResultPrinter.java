@@ -21,8 +21,15 @@ import net.shipilev.concurrency.torture.schema.descr.Case;
 import net.shipilev.concurrency.torture.schema.descr.ExpectType;
 import net.shipilev.concurrency.torture.schema.descr.Test;
 import net.shipilev.concurrency.torture.schema.descr.Testsuite;
+import net.shipilev.concurrency.torture.schema.result.Discovery;
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.Latency;
+import net.shipilev.concurrency.torture.schema.result.PhaseChange;
+import net.shipilev.concurrency.torture.schema.result.Rate;
 import net.shipilev.concurrency.torture.schema.result.Result;
 import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrency.torture.schema.result.Timeout;
+import net.shipilev.concurrency.torture.schema.result.Window;
 import org.reflections.Reflections;
 import org.reflections.scanners.ResourcesScanner;
 import org.reflections.util.ClasspathHelper;
@@ -55,6 +62,7 @@ public class TextResultPrinter {
                 new ConfigurationBuilder()
                         .filterInputsBy(new FilterBuilder().include("net.shipilev.concurrent.torture.desc.*"))
                         .setUrls(ClasspathHelper.forClassLoader())
+                        .addUrls(ClasspathHelper.forJavaClassPath())
                         .setScanners(new ResourcesScanner()));
 
         Set<String> resources = r.getResources(new Predicate<String>() {
@@ -77,6 +85,66 @@ public class TextResultPrinter {
         }
     }
 
+    /**
+     * @param testName test class name
+     * @return test description; null if test is not described
+     */
+    public Test getDescription(String testName) {
+        return descriptions.get(testName);
+    }
+
+    /**
+     * Answers the expectation for the observed state.
+     *
+     * @param test test description
+     * @param id state id
+     * @return expectation of the first matching case, or the expectation for the unmatched states
+     */
+    public static ExpectType classify(Test test, String id) {
+        for (Case c : test.getCase()) {
+            if (c.getMatch().contains(id)) {
+                return c.getExpect();
+            }
+        }
+        return test.getUnmatched().getExpect();
+    }
+
+    /**
+     * Grades the result against the test description, the same way the reports color it:
+     * observing any forbidden state, or not observing any of the required cases fails the test.
+     * Timed out test fails as well.
+     *
+     * @param test test description
+     * @param r result
+     * @return true, if result is correct
+     */
+    public static boolean isCorrect(Test test, Result r) {
+        if (r.getTimeout() != null) {
+            return false;
+        }
+        for (State s : r.getState()) {
+            ExpectType e = classify(test, s.getId());
+            if (s.getCount() > 0 && (e == ExpectType.FORBIDDEN || e == ExpectType.KNOWN_FORBIDDEN)) {
+                return false;
+            }
+        }
+        for (Case c : test.getCase()) {
+            if (c.getExpect() != ExpectType.REQUIRED) {
+                continue;
+            }
+            long count = 0;
+            for (State s : r.getState()) {
+                if (c.getMatch().contains(s.getId())) {
+                    count += s.getCount();
+                }
+            }
+            if (count == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public <T> T unmarshal(Class<T> docClass, InputStream inputStream)
             throws JAXBException {
         String packageName = docClass.getPackage().getName();
@@ -102,6 +170,7 @@ public class TextResultPrinter {
                             ExpectType.UNKNOWN,
                             "N/A");
             }
+            printTimeout(output, r);
 
             return;
         }
@@ -146,6 +215,103 @@ public class TextResultPrinter {
                     cutoff(test.getUnmatched().getDescription()));
         }
 
+        printPhaseChanges(output, r);
+        printRate(output, r);
+        printDiscoveries(output, r);
+        printWindow(output, r);
+        printLatencies(output, r);
+        printTimeout(output, r);
+    }
+
+    private void printTimeout(PrintWriter output, Result r) {
+        Timeout t = r.getTimeout();
+        if (t == null) {
+            return;
+        }
+        output.printf("TIMEOUT: %s had not completed within %d ms, results are partial%s\n",
+                "fork".equals(t.getStage()) ? "Forked VM" : "Test roles",
+                t.getLimit(),
+                t.getDump() != null ? "; threads are dumped to " + t.getDump() : "");
+    }
+
+    private void printLatencies(PrintWriter output, Result r) {
+        for (Latency l : r.getLatency()) {
+            output.printf("Handoff latency %s: p50 = %d ns, p90 = %d ns, p99 = %d ns, p99.9 = %d ns, max = %d ns (%d samples)\n",
+                    l.getTransition(), l.getP50(), l.getP90(), l.getP99(), l.getP999(), l.getMax(), l.getSamples());
+        }
+    }
+
+    private void printWindow(PrintWriter output, Result r) {
+        if (r.getWindow().isEmpty()) {
+            return;
+        }
+
+        long total = 0;
+        for (State s : r.getState()) {
+            total += s.getCount();
+        }
+
+        long inside = 0;
+        output.println("Race window, observer time relative to actor:");
+        for (Window w : r.getWindow()) {
+            inside += w.getSamples();
+            output.printf("%25s %12d", "[" + w.getFrom() + ", " + w.getTo() + ") ns", w.getSamples());
+            for (State s : w.getState()) {
+                output.printf("  %s %.1f%%", s.getId(), s.getCount() * 100.0 / w.getSamples());
+            }
+            output.println();
+        }
+        if (total > inside) {
+            output.printf("%d of %d samples missed the swept range\n", total - inside, total);
+        }
+    }
+
+    private void printDiscoveries(PrintWriter output, Result r) {
+        for (Discovery d : r.getDiscovery()) {
+            output.printf("Search exposed %s in round %d, after %d ms (%s)\n",
+                    d.getState(), d.getRound(), d.getElapsed(), d.getSchedule());
+        }
+    }
+
+    private void printRate(PrintWriter output, Result r) {
+        Rate rate = r.getRate();
+        if (rate == null || rate.getTime() == 0) {
+            return;
+        }
+
+        double samplesPerSec = rate.getSamples() * 1000.0 / rate.getTime();
+        if (rate.getPeak() != null) {
+            output.printf("Sample rate: %.0f/sec, %.1f%% of harness peak %.0f/sec (%s, stride %d)\n",
+                    samplesPerSec, samplesPerSec * 100 / rate.getPeak(), rate.getPeak(), rate.getWait(), rate.getStride());
+        } else if (rate.getStride() == null && rate.getWait() != null) {
+            output.printf("Sample rate: %.0f/sec (%s mode, not comparable with harness peak)\n", samplesPerSec, rate.getWait());
+        } else {
+            output.printf("Sample rate: %.0f/sec (harness peak is unknown for this mode and VM, run with -calibrate)\n", samplesPerSec);
+        }
+    }
+
+    private void printPhaseChanges(PrintWriter output, Result r) {
+        List<Iteration> iterations = r.getIteration();
+        if (iterations.isEmpty()) {
+            return;
+        }
+
+        for (PhaseChange pc : r.getPhaseChange()) {
+            Iteration it = iterations.get(pc.getIteration());
+            output.printf("Outcome distribution shifted at iteration %d%s: chi^2 = %.1f (df = %d), V = %.3f%s\n",
+                    pc.getIteration(),
+                    it.isWarmup() ? " (warmup)" : "",
+                    pc.getChiSquare(),
+                    pc.getFreedom(),
+                    pc.getCramerV(),
+                    pc.getNewState().isEmpty() ? "" : ", new states: " + pc.getNewState());
+        }
+
+        int stable = PhaseChangeDetector.stableSince(r.getPhaseChange());
+        output.printf("Outcome distribution is stable since iteration %d of %d%s\n",
+                stable,
+                iterations.size(),
+                iterations.get(stable).isWarmup() ? " (warmup)" : "");
     }
 
     private static String cutoff(String src) {
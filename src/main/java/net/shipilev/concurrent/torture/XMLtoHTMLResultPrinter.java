@@ -25,8 +25,15 @@ import net.shipilev.concurrency.torture.schema.descr.ExpectType;
 import net.shipilev.concurrency.torture.schema.descr.Ref;
 import net.shipilev.concurrency.torture.schema.descr.Test;
 import net.shipilev.concurrency.torture.schema.descr.Testsuite;
+import net.shipilev.concurrency.torture.schema.result.Discovery;
+import net.shipilev.concurrency.torture.schema.result.Iteration;
+import net.shipilev.concurrency.torture.schema.result.Latency;
+import net.shipilev.concurrency.torture.schema.result.PhaseChange;
+import net.shipilev.concurrency.torture.schema.result.Rate;
 import net.shipilev.concurrency.torture.schema.result.Result;
 import net.shipilev.concurrency.torture.schema.result.State;
+import net.shipilev.concurrency.torture.schema.result.Timeout;
+import net.shipilev.concurrency.torture.schema.result.Window;
 import org.reflections.Reflections;
 import org.reflections.scanners.ResourcesScanner;
 import org.reflections.util.ClasspathHelper;
@@ -41,6 +48,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
@@ -56,9 +64,24 @@ public class XMLtoHTMLResultPrinter {
 
     private final String resultDir;
     private final Multimap<String, Test> testSuites;
+    private final HistoryPrinter history;
 
     public XMLtoHTMLResultPrinter(Options opts) throws JAXBException, FileNotFoundException {
-        resultDir = opts.getResultDest();
+        this(opts.getResultDest());
+    }
+
+    public XMLtoHTMLResultPrinter(String resultDir) throws JAXBException, FileNotFoundException {
+        this(resultDir, resultDir);
+    }
+
+    /**
+     * @param resultDir results dir to report
+     * @param historyDir results dir with the history store, e.g. the parent of the configuration dirs
+     * @throws JAXBException
+     * @throws FileNotFoundException
+     */
+    public XMLtoHTMLResultPrinter(String resultDir, String historyDir) throws JAXBException, FileNotFoundException {
+        this.resultDir = resultDir;
         testSuites = TreeMultimap.create(String.CASE_INSENSITIVE_ORDER, new Comparator<Test>() {
             @Override
             public int compare(Test o1, Test o2) {
@@ -66,6 +89,16 @@ public class XMLtoHTMLResultPrinter {
             }
         });
         readDescriptions();
+
+        HistoryPrinter h = null;
+        if (ResultStore.exists(historyDir)) {
+            try {
+                h = new HistoryPrinter(ResultStore.open(historyDir));
+            } catch (IOException e) {
+                System.err.println("WARNING: Unable to read the history: " + e.getMessage());
+            }
+        }
+        history = h;
     }
 
     private void readDescriptions() throws JAXBException {
@@ -73,6 +106,7 @@ public class XMLtoHTMLResultPrinter {
                 new ConfigurationBuilder()
                         .filterInputsBy(new FilterBuilder().include("net.shipilev.concurrent.torture.desc.*"))
                         .setUrls(ClasspathHelper.forClassLoader())
+                        .addUrls(ClasspathHelper.forJavaClassPath())
                         .setScanners(new ResourcesScanner()));
 
         Set<String> resources = r.getResources(new Predicate<String>() {
@@ -150,6 +184,12 @@ public class XMLtoHTMLResultPrinter {
 
         output.println("<p>" + test.getDescription() + "</p>");
 
+        Timeout t = r.getTimeout();
+        if (t != null) {
+            output.println("<p><b>TIMEOUT:</b> " + ("fork".equals(t.getStage()) ? "forked VM" : "test roles") + " had not completed within " + t.getLimit() + " ms, results are partial" +
+                    (t.getDump() != null ? "; threads are dumped to " + t.getDump() : "") + "</p>");
+        }
+
         output.println("<table width=100%>");
         output.println("<tr>");
         output.println("<th width=250>Observed state</th>");
@@ -220,14 +260,62 @@ public class XMLtoHTMLResultPrinter {
         }
 
         output.println("</table>");
+
+        for (PhaseChange pc : r.getPhaseChange()) {
+            Iteration it = r.getIteration().get(pc.getIteration());
+            output.println("<p>Outcome distribution shifted at iteration " + pc.getIteration() + (it.isWarmup() ? " (warmup)" : "") +
+                    (pc.getNewState().isEmpty() ? "" : ", new states: " + pc.getNewState()) + "</p>");
+        }
+
+        Rate rate = r.getRate();
+        if (rate != null && rate.getTime() > 0) {
+            double samplesPerSec = rate.getSamples() * 1000.0 / rate.getTime();
+            output.print("<p>Sample rate: " + String.format("%.0f", samplesPerSec) + "/sec");
+            if (rate.getPeak() != null) {
+                output.print(", " + String.format("%.1f", samplesPerSec * 100 / rate.getPeak()) + "% of harness peak");
+            }
+            output.println("</p>");
+        }
+
+        for (Discovery d : r.getDiscovery()) {
+            output.println("<p>Search exposed " + d.getState() + " in round " + d.getRound() + ", after " + d.getElapsed() + " ms (" + d.getSchedule() + ")</p>");
+        }
+
+        if (!r.getWindow().isEmpty()) {
+            output.println("<p>Race window, observer time relative to actor:</p>");
+            output.println("<table>");
+            for (Window w : r.getWindow()) {
+                output.print("<tr><td>[" + w.getFrom() + ", " + w.getTo() + ") ns</td><td>" + w.getSamples() + "</td><td>");
+                for (State s : w.getState()) {
+                    output.print(s.getId() + " " + String.format("%.1f", s.getCount() * 100.0 / w.getSamples()) + "% ");
+                }
+                output.println("</td></tr>");
+            }
+            output.println("</table>");
+        }
+
+        if (!r.getLatency().isEmpty()) {
+            output.println("<p>Handoff latencies, ns:</p>");
+            output.println("<table>");
+            output.println("<tr><th>transition</th><th>p50</th><th>p90</th><th>p99</th><th>p99.9</th><th>max</th><th>samples</th></tr>");
+            for (Latency l : r.getLatency()) {
+                output.println("<tr><td>" + l.getTransition() + "</td><td>" + l.getP50() + "</td><td>" + l.getP90() + "</td><td>" + l.getP99() +
+                        "</td><td>" + l.getP999() + "</td><td>" + l.getMax() + "</td><td>" + l.getSamples() + "</td></tr>");
+            }
+            output.println("</table>");
+        }
+
+        if (history != null) {
+            history.printHtml(output, r.getName());
+        }
     }
 
-    public String selectHTMLColor(ExpectType type, boolean isZero) {
+    public static String selectHTMLColor(ExpectType type, boolean isZero) {
         String rgb = Integer.toHexString(selectColor(type, isZero).getRGB());
         return "#" + rgb.substring(2, rgb.length());
     }
 
-    public Color selectColor(ExpectType type, boolean isZero) {
+    public static Color selectColor(ExpectType type, boolean isZero) {
         switch (type) {
             case REQUIRED:
                 return isZero ? Color.RED : Color.GREEN;
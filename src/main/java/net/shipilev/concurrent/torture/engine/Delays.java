@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.engine;
+
+import net.shipilev.concurrent.torture.util.XorShift;
+
+/**
+ * Busy-spin delays injected before the test methods, to shift the relative phase of the threads.
+ *
+ * The distribution is given by the spec:
+ * <ul>
+ *     <li>{@code none}: no delays;</li>
+ *     <li>{@code uniform:N}: uniform between 0 and N nanoseconds;</li>
+ *     <li>{@code exp:N}: exponential with the mean of N nanoseconds;</li>
+ *     <li>{@code log:N}: log-uniform between 1 and N nanoseconds, spreading evenly from nanos to micros.</li>
+ * </ul>
+ *
+ * Delays are converted to spin counts with the spin rate measured on first use, and then
+ * precomputed into per-role tables. Role loops only index the table and spin, so that they
+ * do not call the clock or allocate.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Delays {
+
+    /**
+     * Table size, power of two.
+     */
+    public static final int TABLE_SIZE = 1024;
+
+    public static final Delays NONE = new Delays("none", 0);
+
+    /**
+     * Sink for spin results, keeps the spins from being optimized out.
+     */
+    private static volatile int sink;
+
+    private final String kind;
+    private final long nanos;
+
+    private Delays(String kind, long nanos) {
+        this.kind = kind;
+        this.nanos = nanos;
+    }
+
+    /**
+     * Parses the delay spec.
+     *
+     * @param spec spec, see class description
+     * @return delays
+     * @throws IllegalArgumentException if spec is malformed
+     */
+    public static Delays parse(String spec) {
+        if ("none".equals(spec)) {
+            return NONE;
+        }
+
+        int idx = spec.indexOf(':');
+        if (idx == -1) {
+            throw new IllegalArgumentException("Delay spec should be none, uniform:N, exp:N, or log:N: " + spec);
+        }
+
+        String kind = spec.substring(0, idx);
+        if (!"uniform".equals(kind) && !"exp".equals(kind) && !"log".equals(kind)) {
+            throw new IllegalArgumentException("Unknown delay distribution: " + kind);
+        }
+
+        long nanos;
+        try {
+            nanos = Long.parseLong(spec.substring(idx + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Delay should be the number of nanoseconds: " + spec);
+        }
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("Delay should be positive: " + spec);
+        }
+
+        return new Delays(kind, nanos);
+    }
+
+    public boolean isEnabled() {
+        return this != NONE;
+    }
+
+    /**
+     * Precomputes the table of spin counts for a role.
+     *
+     * @param seed seed for the role
+     * @return spin counts, {@link #TABLE_SIZE} entries; null if delays are disabled
+     */
+    public int[] table(long seed) {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        double spinsPerNano = SpinRate.SPINS_PER_NANO;
+
+        long rnd = seed;
+        int[] table = new int[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            rnd = XorShift.next(rnd);
+            double u = (rnd >>> 11) * 0x1.0p-53;
+
+            double delay;
+            if ("uniform".equals(kind)) {
+                delay = u * nanos;
+            } else if ("exp".equals(kind)) {
+                delay = -Math.log(1 - u) * nanos;
+            } else {
+                delay = Math.pow(nanos, u);
+            }
+
+            table[i] = (int) Math.min(Integer.MAX_VALUE, Math.round(delay * spinsPerNano));
+        }
+        return table;
+    }
+
+    /**
+     * Busy-spins for given number of iterations.
+     *
+     * @param spins number of iterations
+     * @return result to be passed to {@link #consume(int)}
+     */
+    public static int spin(int spins) {
+        int x = spins;
+        for (int i = 0; i < spins; i++) {
+            x = x * 1103515245 + 12345;
+        }
+        return x;
+    }
+
+    /**
+     * Consumes the accumulated spin results.
+     * Role loops call this once, when done.
+     *
+     * @param v accumulated spin results
+     */
+    public static void consume(int v) {
+        sink = v;
+    }
+
+    /**
+     * @return measured spin rate, spins per nanosecond
+     */
+    public static double getSpinsPerNano() {
+        return SpinRate.SPINS_PER_NANO;
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? kind + ":" + nanos : kind;
+    }
+
+    /**
+     * Lazily measures the spin rate, only if delays are actually used.
+     */
+    private static class SpinRate {
+        static final double SPINS_PER_NANO = measure();
+
+        private static double measure() {
+            int spins = 1000;
+            int acc = 0;
+
+            // warm up, and find the spin count taking at least 1 ms
+            long time;
+            do {
+                spins *= 2;
+                long start = System.nanoTime();
+                acc += spin(spins);
+                time = System.nanoTime() - start;
+            } while (time < 1000000 && spins < (1 << 29));
+
+            // take the best of several attempts
+            long best = Long.MAX_VALUE;
+            for (int c = 0; c < 10; c++) {
+                long start = System.nanoTime();
+                acc += spin(spins);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            consume(acc);
+
+            return (double) spins / Math.max(1, best);
+        }
+    }
+
+}
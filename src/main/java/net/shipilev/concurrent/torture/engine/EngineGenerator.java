@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtMethod;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.Modifier;
+import net.shipilev.concurrent.torture.tests.ConcurrencyTest;
+import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
+import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates the dedicated engine class per test class.
+ *
+ * Engine templates call test methods through the test interfaces. When many tests are run
+ * in the same VM, those call sites see many receiver types, go megamorphic, and stop inlining.
+ * Generated engine subclasses carry their own copies of role methods, and each copy only
+ * ever sees a single test class. This gives every test the monomorphic profile it would have
+ * in the forked VM.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class EngineGenerator {
+
+    private final boolean enabled;
+    private final ClassPool pool;
+    private final DefiningClassLoader loader;
+    private final Map<String, Constructor<?>> constructors;
+
+    private boolean failed;
+
+    public EngineGenerator(boolean enabled) {
+        this.enabled = enabled;
+        this.constructors = new HashMap<String, Constructor<?>>();
+        this.pool = new ClassPool(false);
+        this.pool.appendClassPath(new LoaderClassPath(EngineGenerator.class.getClassLoader()));
+        this.loader = new DefiningClassLoader(EngineGenerator.class.getClassLoader());
+    }
+
+    public <S> OneActorOneObserverEngine<S> newEngine(OneActorOneObserverTest<S> test, int loops, boolean shouldYield, boolean padded, boolean ordered, long seed, boolean reshuffle, Delays delays, int latencySampling) {
+        Constructor<?> c = lookup(OneActorOneObserverEngine.class, test);
+        if (c != null) {
+            @SuppressWarnings("unchecked")
+            OneActorOneObserverEngine<S> engine = (OneActorOneObserverEngine<S>) instantiate(c, test, loops, shouldYield, padded, ordered, seed, reshuffle, delays, latencySampling);
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return new OneActorOneObserverEngine<S>(test, loops, shouldYield, padded, ordered, seed, reshuffle, delays, latencySampling);
+    }
+
+    public <S> TwoActorsOneArbiterEngine<S> newEngine(TwoActorsOneArbiterTest<S> test, int loops, boolean shouldYield, boolean padded, boolean ordered, long seed, Delays delays, int latencySampling) {
+        Constructor<?> c = lookup(TwoActorsOneArbiterEngine.class, test);
+        if (c != null) {
+            @SuppressWarnings("unchecked")
+            TwoActorsOneArbiterEngine<S> engine = (TwoActorsOneArbiterEngine<S>) instantiate(c, test, loops, shouldYield, padded, ordered, seed, delays, latencySampling);
+            if (engine != null) {
+                return engine;
+            }
+        }
+        return new TwoActorsOneArbiterEngine<S>(test, loops, shouldYield, padded, ordered, seed, delays, latencySampling);
+    }
+
+    private Object instantiate(Constructor<?> c, Object... args) {
+        try {
+            return c.newInstance(args);
+        } catch (Exception e) {
+            fail(e);
+            return null;
+        }
+    }
+
+    private Constructor<?> lookup(Class<?> template, ConcurrencyTest test) {
+        if (!enabled || failed) {
+            return null;
+        }
+
+        String name = template.getName() + "$$" + test.getClass().getName().replace('.', '_');
+        Constructor<?> c = constructors.get(name);
+        if (c == null) {
+            try {
+                Class<?> klass = generate(template, name);
+                c = klass.getConstructors()[0];
+                constructors.put(name, c);
+            } catch (Exception e) {
+                fail(e);
+                return null;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Generates the subclass for template which has the copies of all template methods.
+     */
+    private Class<?> generate(Class<?> template, String name) throws Exception {
+        CtClass base = pool.get(template.getName());
+        CtClass klass = pool.makeClass(name, base);
+
+        for (CtConstructor c : base.getDeclaredConstructors()) {
+            klass.addConstructor(CtNewConstructor.make(c.getParameterTypes(), c.getExceptionTypes(),
+                    CtNewConstructor.PASS_PARAMS, null, null, klass));
+        }
+
+        for (CtMethod m : base.getDeclaredMethods()) {
+            if (Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
+            klass.addMethod(CtNewMethod.copy(m, klass, null));
+        }
+
+        byte[] bytes = klass.toBytecode();
+        klass.detach();
+
+        return loader.define(name, bytes);
+    }
+
+    private void fail(Exception e) {
+        if (!failed) {
+            failed = true;
+            System.err.println("WARNING: Unable to generate the dedicated engines, falling back to shared ones: " + e);
+        }
+    }
+
+    private static class DefiningClassLoader extends ClassLoader {
+        public DefiningClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        public Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+}
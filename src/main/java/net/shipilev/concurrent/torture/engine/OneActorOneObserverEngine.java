@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.Runner;
+import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
+import net.shipilev.concurrent.torture.util.LatencyHistogram;
+import net.shipilev.concurrent.torture.util.XorShift;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Role loops for {@link OneActorOneObserverTest}.
+ *
+ * This class is also the template for per-test engines produced by {@link EngineGenerator}.
+ * Role methods are copied into the generated subclass verbatim, hence they should only touch
+ * public or protected members, and should not declare inner classes.
+ *
+ * All the state shared between the roles is in the holder. Role-local state lives
+ * in the role methods, and is allocated by the role thread itself, away from the shared lines.
+ * Latency histograms are role-local as well, and are handed over to the engine once the role exits.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class OneActorOneObserverEngine<S> {
+
+    public static final String[] ROLES = {"injector", "actor1", "observer"};
+
+    protected static final int INJECTOR = 0;
+    protected static final int ACTOR1 = 1;
+    protected static final int OBSERVER = 2;
+
+    protected final OneActorOneObserverTest<S> test;
+    protected final SingleSharedStateHolder<S> holder;
+    protected final int loops;
+    protected final boolean shouldYield;
+    protected final long seed;
+    protected final boolean reshuffle;
+    protected final int[] actorDelays;
+    protected final int[] observerDelays;
+    protected final Progress progress;
+    protected final int latencySampling;
+    protected LatencyHistogram actor1Latency;
+    protected LatencyHistogram observerLatency;
+
+    public OneActorOneObserverEngine(OneActorOneObserverTest<S> test, int loops, boolean shouldYield, boolean padded, boolean ordered, long seed, boolean reshuffle, Delays delays, int latencySampling) {
+        this.test = test;
+        this.loops = loops;
+        this.shouldYield = shouldYield;
+        this.seed = seed;
+        this.reshuffle = reshuffle;
+        this.actorDelays = delays.table(XorShift.seed(seed, 3));
+        this.observerDelays = delays.table(XorShift.seed(seed, 4));
+        this.holder = SingleSharedStateHolder.create(padded, ordered);
+        this.progress = new Progress(ROLES);
+        this.latencySampling = latencySampling;
+
+        // current should be null so that injector could inject the first instance
+        holder.setCurrent(null);
+    }
+
+    public void stop() {
+        holder.stop();
+    }
+
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Answers the handoff latencies. Should be called after all the roles have exited.
+     *
+     * @return transition name -> latency histogram
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        Map<String, LatencyHistogram> result = new LinkedHashMap<String, LatencyHistogram>();
+        if (actor1Latency != null) {
+            result.put("injector->actor1", actor1Latency);
+        }
+        if (observerLatency != null) {
+            result.put("injector->observer", observerLatency);
+        }
+        return result;
+    }
+
+    /**
+     * Injector: injects new states until stopped.
+     * Every $latencySampling-th stride is stamped with its publication time when latencies are recorded.
+     */
+    public void injector() {
+        long idle = 0;
+        long work = 0;
+        int unstamped = 0;
+
+        while (!holder.isStopped()) {
+
+            @SuppressWarnings("unchecked")
+            S[] newStride = (S[]) new Object[loops];
+
+            for (int c = 0; c < loops; c++) {
+                newStride[c] = test.newState();
+            }
+
+            while (holder.getCurrent() != null) {
+                if (holder.isStopped()) {
+                    return;
+                }
+                if ((++idle & Progress.SPIN_PUBLISH_MASK) == 0) progress.publish(INJECTOR, idle, work);
+                if (shouldYield) Thread.yield();
+            }
+            if (latencySampling > 0 && ++unstamped >= latencySampling) {
+                unstamped = 0;
+                holder.setStamp(new Stamp(newStride, System.nanoTime()));
+            }
+            holder.setCurrent(newStride);
+            progress.publish(INJECTOR, idle, ++work);
+        }
+    }
+
+    /**
+     * Actor 1.
+     * The rationale for its loop is as follows:
+     *   a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
+     *   b. Thread should not observe the state object more than once
+     *   c. Access order is reshuffled for every stride; the generator state is a local, so this does not allocate
+     *   d. Optional delays shift the phase against the observer; spin results are summed up to keep the spins alive
+     *   e. Progress is published once per stride, or once in a while when idle
+     *   f. Strides stamped by the injector record the time they waited to be picked up
+     */
+    public void actor1() {
+        LatencyHistogram latency = new LatencyHistogram();
+        S[] last = null;
+        int[] delays = actorDelays;
+        int sink = 0;
+        long idle = 0;
+        long work = 0;
+
+        long rnd = XorShift.seed(seed, 1);
+        int[] indices = new int[loops];
+        for (int i = 0; i < loops; i++) {
+            indices[i] = i;
+        }
+        rnd = XorShift.shuffle(indices, rnd);
+
+        while (!holder.isStopped()) {
+            S[] cur = holder.getCurrent();
+            if (cur != null && last != cur) {
+                if (latencySampling > 0) {
+                    Stamp stamp = holder.getStamp();
+                    if (stamp != null && stamp.isFor(cur)) {
+                        latency.record(System.nanoTime() - stamp.getTime());
+                    }
+                }
+                if (reshuffle) {
+                    rnd = XorShift.shuffle(indices, rnd);
+                }
+                for (int l = 0; l < loops; l++) {
+                    if (delays != null) {
+                        rnd = XorShift.next(rnd);
+                        sink += Delays.spin(delays[(int) rnd & (Delays.TABLE_SIZE - 1)]);
+                    }
+                    test.actor1(cur[indices[l]]);
+                }
+                last = cur;
+                progress.publish(ACTOR1, idle, ++work);
+            } else {
+                if ((++idle & Progress.SPIN_PUBLISH_MASK) == 0) progress.publish(ACTOR1, idle, work);
+                if (shouldYield) Thread.yield();
+            }
+        }
+        Delays.consume(sink);
+        actor1Latency = latency;
+    }
+
+    /**
+     * Observer.
+     * The rationale for its loop is as follows:
+     *   a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
+     *   b. Thread should not observe the state object more than once
+     *   c. The overhead of doing the work inside the inner loop should be small
+     *   d. $state is getting reused, so we end up marshalling it to long to count properly
+     *   e. Access order is reshuffled for every stride; the generator state is a local, so this does not allocate
+     *   f. Optional delays shift the phase against the actor; spin results are summed up to keep the spins alive
+     *   g. Progress is published once per stride, or once in a while when idle
+     *   h. Strides stamped by the injector record the time they waited to be picked up
+     *
+     * @return observed states
+     */
+    public Multiset<Long> observer() {
+        Multiset<Long> set = HashMultiset.create();
+        LatencyHistogram latency = new LatencyHistogram();
+
+        S[] last = null;
+        byte[] state = new byte[8];
+        byte[][] results = new byte[loops][];
+        int[] delays = observerDelays;
+        int sink = 0;
+        long idle = 0;
+        long work = 0;
+
+        long rnd = XorShift.seed(seed, 2);
+        int[] indices = new int[loops];
+        for (int i = 0; i < loops; i++) {
+            indices[i] = i;
+        }
+        rnd = XorShift.shuffle(indices, rnd);
+
+        while (!holder.isStopped()) {
+            S[] cur = holder.getCurrent();
+
+            if (cur != null && last != cur) {
+                if (latencySampling > 0) {
+                    Stamp stamp = holder.getStamp();
+                    if (stamp != null && stamp.isFor(cur)) {
+                        latency.record(System.nanoTime() - stamp.getTime());
+                    }
+                }
+                if (reshuffle) {
+                    rnd = XorShift.shuffle(indices, rnd);
+                }
+                for (int l = 0; l < loops; l++) {
+                    int index = indices[l];
+                    if (delays != null) {
+                        rnd = XorShift.next(rnd);
+                        sink += Delays.spin(delays[(int) rnd & (Delays.TABLE_SIZE - 1)]);
+                    }
+                    test.observe(cur[index], state);
+                    results[index] = new byte[8];
+                    System.arraycopy(state, 0, results[index], 0, 8);
+                }
+
+                last = cur;
+
+                for (int i = 0; i < loops; i++) {
+                    set.add(Runner.byteArrToLong(results[i]));
+                }
+
+                // let others proceed
+                holder.setCurrent(null);
+
+                progress.publish(OBSERVER, idle, ++work);
+                progress.publishSamples(set.size(), set.elementSet().size());
+            } else {
+                if ((++idle & Progress.SPIN_PUBLISH_MASK) == 0) progress.publish(OBSERVER, idle, work);
+                if (shouldYield) Thread.yield();
+            }
+        }
+        Delays.consume(sink);
+        observerLatency = latency;
+        return set;
+    }
+
+}
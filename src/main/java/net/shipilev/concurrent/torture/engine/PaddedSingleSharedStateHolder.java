@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Shared state with every field isolated in its own cache line.
+ *
+ * VM lays out superclass fields before subclass fields, so the padding is built with
+ * the class hierarchy: every shared field is surrounded with 64 bytes of padding on both sides.
+ * {@code @Contended} would do the same, but it is not available for the harness.
+ *
+ * Padding is made of bytes. Since JDK 15, VM puts the fields into any gap large enough,
+ * including the gaps in superclass layout, e.g. after the header, or after the boolean. Byte
+ * padding leaves no gaps but the ones before the references, which are too small for anything
+ * but the padding itself.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public final class PaddedSingleSharedStateHolder<S> extends PaddedSinglePad2<S> {
+
+    @Override
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    @Override
+    public void stop() {
+        isStopped = true;
+    }
+
+    @Override
+    public S[] getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void setCurrent(S[] current) {
+        this.current = current;
+    }
+
+    @Override
+    public Stamp getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public void setStamp(Stamp stamp) {
+        this.stamp = stamp;
+    }
+
+    /**
+     * Padded layout with release-only stores.
+     * The class owns the fields it stores to, and is final: on JDK 8, field updaters only take
+     * their fast path on the instances of the very class which declares the field.
+     * It shares the padding up to the current state with the plain padded layout. Its own fields
+     * are padded with references: VM lays out the references after the primitives, in declaration
+     * order, so byte padding would end up in front of them. With compressed references, JOL shows
+     * the same offsets of the shared fields as in the plain padded layout; without them, the padding
+     * is twice as wide.
+     *
+     * @param <S> test state object type
+     */
+    static final class Ordered<S> extends PaddedSinglePad1<S> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Ordered, Object[]> CURRENT =
+                AtomicReferenceFieldUpdater.newUpdater(Ordered.class, Object[].class, "current");
+
+        volatile S[] current;
+        Stamp stamp;
+        Object p200, p201, p202, p203, p204, p205, p206, p207;
+        Object p210, p211, p212, p213, p214, p215, p216, p217;
+
+        @Override
+        public boolean isStopped() {
+            return isStopped;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public S[] getCurrent() {
+            return current;
+        }
+
+        @Override
+        public void setCurrent(S[] current) {
+            CURRENT.lazySet(this, current);
+        }
+
+        @Override
+        public Stamp getStamp() {
+            return stamp;
+        }
+
+        @Override
+        public void setStamp(Stamp stamp) {
+            this.stamp = stamp;
+        }
+
+    }
+
+}
+
+abstract class PaddedSinglePad0<S> extends SingleSharedStateHolder<S> {
+    byte p000, p001, p002, p003, p004, p005, p006, p007;
+    byte p010, p011, p012, p013, p014, p015, p016, p017;
+    byte p020, p021, p022, p023, p024, p025, p026, p027;
+    byte p030, p031, p032, p033, p034, p035, p036, p037;
+    byte p040, p041, p042, p043, p044, p045, p046, p047;
+    byte p050, p051, p052, p053, p054, p055, p056, p057;
+    byte p060, p061, p062, p063, p064, p065, p066, p067;
+    byte p070, p071, p072, p073, p074, p075, p076, p077;
+}
+
+abstract class PaddedSingleStopped<S> extends PaddedSinglePad0<S> {
+    volatile boolean isStopped;
+}
+
+abstract class PaddedSinglePad1<S> extends PaddedSingleStopped<S> {
+    byte p100, p101, p102, p103, p104, p105, p106, p107;
+    byte p110, p111, p112, p113, p114, p115, p116, p117;
+    byte p120, p121, p122, p123, p124, p125, p126, p127;
+    byte p130, p131, p132, p133, p134, p135, p136, p137;
+    byte p140, p141, p142, p143, p144, p145, p146, p147;
+    byte p150, p151, p152, p153, p154, p155, p156, p157;
+    byte p160, p161, p162, p163, p164, p165, p166, p167;
+    byte p170, p171, p172, p173, p174, p175, p176, p177;
+}
+
+abstract class PaddedSingleCurrent<S> extends PaddedSinglePad1<S> {
+    volatile S[] current;
+    Stamp stamp;
+}
+
+abstract class PaddedSinglePad2<S> extends PaddedSingleCurrent<S> {
+    byte p200, p201, p202, p203, p204, p205, p206, p207;
+    byte p210, p211, p212, p213, p214, p215, p216, p217;
+    byte p220, p221, p222, p223, p224, p225, p226, p227;
+    byte p230, p231, p232, p233, p234, p235, p236, p237;
+    byte p240, p241, p242, p243, p244, p245, p246, p247;
+    byte p250, p251, p252, p253, p254, p255, p256, p257;
+    byte p260, p261, p262, p263, p264, p265, p266, p267;
+    byte p270, p271, p272, p273, p274, p275, p276, p277;
+}
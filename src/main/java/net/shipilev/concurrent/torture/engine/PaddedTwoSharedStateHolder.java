@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Shared state with every field isolated in its own cache line.
+ *
+ * VM lays out superclass fields before subclass fields, so the padding is built with
+ * the class hierarchy: every shared field is surrounded with 64 bytes of padding on both sides.
+ * {@code @Contended} would do the same, but it is not available for the harness.
+ *
+ * Padding is made of bytes. Since JDK 15, VM puts the fields into any gap large enough,
+ * including the gaps in superclass layout, e.g. after the header, or after the boolean. Byte
+ * padding leaves no gaps but the ones before the references, which are too small for anything
+ * but the padding itself.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public final class PaddedTwoSharedStateHolder<S> extends PaddedTwoPad4<S> {
+
+    @Override
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    @Override
+    public void stop() {
+        isStopped = true;
+    }
+
+    @Override
+    public S getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void setCurrent(S current) {
+        this.current = current;
+    }
+
+    @Override
+    public Stamp getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public void setStamp(Stamp stamp) {
+        this.stamp = stamp;
+    }
+
+    @Override
+    public S getT1() {
+        return t1;
+    }
+
+    @Override
+    public void setT1(S t1) {
+        this.t1 = t1;
+    }
+
+    @Override
+    public S getT2() {
+        return t2;
+    }
+
+    @Override
+    public void setT2(S t2) {
+        this.t2 = t2;
+    }
+
+    /**
+     * Padded layout with release-only stores.
+     * The class owns the fields it stores to, and is final: on JDK 8, field updaters only take
+     * their fast path on the instances of the very class which declares the field.
+     * It shares the padding up to the current state with the plain padded layout. Its own fields
+     * are padded with references: VM lays out the references after the primitives, in declaration
+     * order, so byte padding would end up in front of them. With compressed references, JOL shows
+     * the same offsets of the shared fields as in the plain padded layout; without them, the padding
+     * is twice as wide.
+     *
+     * @param <S> test state object type
+     */
+    static final class Ordered<S> extends PaddedTwoPad1<S> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Ordered, Object> CURRENT =
+                AtomicReferenceFieldUpdater.newUpdater(Ordered.class, Object.class, "current");
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Ordered, Object> T1 =
+                AtomicReferenceFieldUpdater.newUpdater(Ordered.class, Object.class, "t1");
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Ordered, Object> T2 =
+                AtomicReferenceFieldUpdater.newUpdater(Ordered.class, Object.class, "t2");
+
+        volatile S current;
+        Stamp stamp;
+        Object p200, p201, p202, p203, p204, p205, p206, p207;
+        Object p210, p211, p212, p213, p214, p215, p216, p217;
+        volatile S t1;
+        Object p300, p301, p302, p303, p304, p305, p306, p307;
+        Object p310, p311, p312, p313, p314, p315, p316, p317;
+        volatile S t2;
+        Object p400, p401, p402, p403, p404, p405, p406, p407;
+        Object p410, p411, p412, p413, p414, p415, p416, p417;
+
+        @Override
+        public boolean isStopped() {
+            return isStopped;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public S getCurrent() {
+            return current;
+        }
+
+        @Override
+        public void setCurrent(S current) {
+            CURRENT.lazySet(this, current);
+        }
+
+        @Override
+        public Stamp getStamp() {
+            return stamp;
+        }
+
+        @Override
+        public void setStamp(Stamp stamp) {
+            this.stamp = stamp;
+        }
+
+        @Override
+        public S getT1() {
+            return t1;
+        }
+
+        @Override
+        public void setT1(S t1) {
+            T1.lazySet(this, t1);
+        }
+
+        @Override
+        public S getT2() {
+            return t2;
+        }
+
+        @Override
+        public void setT2(S t2) {
+            T2.lazySet(this, t2);
+        }
+
+    }
+
+}
+
+abstract class PaddedTwoPad0<S> extends TwoSharedStateHolder<S> {
+    byte p000, p001, p002, p003, p004, p005, p006, p007;
+    byte p010, p011, p012, p013, p014, p015, p016, p017;
+    byte p020, p021, p022, p023, p024, p025, p026, p027;
+    byte p030, p031, p032, p033, p034, p035, p036, p037;
+    byte p040, p041, p042, p043, p044, p045, p046, p047;
+    byte p050, p051, p052, p053, p054, p055, p056, p057;
+    byte p060, p061, p062, p063, p064, p065, p066, p067;
+    byte p070, p071, p072, p073, p074, p075, p076, p077;
+}
+
+abstract class PaddedTwoStopped<S> extends PaddedTwoPad0<S> {
+    volatile boolean isStopped;
+}
+
+abstract class PaddedTwoPad1<S> extends PaddedTwoStopped<S> {
+    byte p100, p101, p102, p103, p104, p105, p106, p107;
+    byte p110, p111, p112, p113, p114, p115, p116, p117;
+    byte p120, p121, p122, p123, p124, p125, p126, p127;
+    byte p130, p131, p132, p133, p134, p135, p136, p137;
+    byte p140, p141, p142, p143, p144, p145, p146, p147;
+    byte p150, p151, p152, p153, p154, p155, p156, p157;
+    byte p160, p161, p162, p163, p164, p165, p166, p167;
+    byte p170, p171, p172, p173, p174, p175, p176, p177;
+}
+
+abstract class PaddedTwoCurrent<S> extends PaddedTwoPad1<S> {
+    volatile S current;
+    Stamp stamp;
+}
+
+abstract class PaddedTwoPad2<S> extends PaddedTwoCurrent<S> {
+    byte p200, p201, p202, p203, p204, p205, p206, p207;
+    byte p210, p211, p212, p213, p214, p215, p216, p217;
+    byte p220, p221, p222, p223, p224, p225, p226, p227;
+    byte p230, p231, p232, p233, p234, p235, p236, p237;
+    byte p240, p241, p242, p243, p244, p245, p246, p247;
+    byte p250, p251, p252, p253, p254, p255, p256, p257;
+    byte p260, p261, p262, p263, p264, p265, p266, p267;
+    byte p270, p271, p272, p273, p274, p275, p276, p277;
+}
+
+abstract class PaddedTwoT1<S> extends PaddedTwoPad2<S> {
+    volatile S t1;
+}
+
+abstract class PaddedTwoPad3<S> extends PaddedTwoT1<S> {
+    byte p300, p301, p302, p303, p304, p305, p306, p307;
+    byte p310, p311, p312, p313, p314, p315, p316, p317;
+    byte p320, p321, p322, p323, p324, p325, p326, p327;
+    byte p330, p331, p332, p333, p334, p335, p336, p337;
+    byte p340, p341, p342, p343, p344, p345, p346, p347;
+    byte p350, p351, p352, p353, p354, p355, p356, p357;
+    byte p360, p361, p362, p363, p364, p365, p366, p367;
+    byte p370, p371, p372, p373, p374, p375, p376, p377;
+}
+
+abstract class PaddedTwoT2<S> extends PaddedTwoPad3<S> {
+    volatile S t2;
+}
+
+abstract class PaddedTwoPad4<S> extends PaddedTwoT2<S> {
+    byte p400, p401, p402, p403, p404, p405, p406, p407;
+    byte p410, p411, p412, p413, p414, p415, p416, p417;
+    byte p420, p421, p422, p423, p424, p425, p426, p427;
+    byte p430, p431, p432, p433, p434, p435, p436, p437;
+    byte p440, p441, p442, p443, p444, p445, p446, p447;
+    byte p450, p451, p452, p453, p454, p455, p456, p457;
+    byte p460, p461, p462, p463, p464, p465, p466, p467;
+    byte p470, p471, p472, p473, p474, p475, p476, p477;
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.engine;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-role progress counters of a running engine.
+ *
+ * Roles count locally, and publish their counters with lazySet once per stride, or once
+ * in a while when waiting. Every role writes to its own cache line, and readers never block
+ * the writers.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class Progress {
+
+    /**
+     * Publish the counters every that many idle spins.
+     */
+    public static final int SPIN_PUBLISH_MASK = 1023;
+
+    /**
+     * Counters per role, enough to keep the roles on separate cache lines.
+     */
+    private static final int STRIDE = 16;
+
+    private static final int SPINS = 0;
+    private static final int WORK = 1;
+    private static final int SAMPLES = 2;
+    private static final int DISTINCT = 3;
+
+    private final String[] roles;
+    private final AtomicLongArray counters;
+
+    public Progress(String[] roles) {
+        this.roles = roles;
+        // leading padding, plus the line per role
+        this.counters = new AtomicLongArray((roles.length + 1) * STRIDE);
+    }
+
+    /**
+     * Publishes the role counters.
+     *
+     * @param role role index
+     * @param spins idle spins so far
+     * @param work productive loop iterations so far
+     */
+    public void publish(int role, long spins, long work) {
+        int base = (role + 1) * STRIDE;
+        counters.lazySet(base + SPINS, spins);
+        counters.lazySet(base + WORK, work);
+    }
+
+    /**
+     * Publishes the sample counters.
+     * Only the last role, collecting the results, should call this.
+     *
+     * @param samples samples so far
+     * @param distinct distinct outcomes so far
+     */
+    public void publishSamples(long samples, long distinct) {
+        int base = roles.length * STRIDE;
+        counters.lazySet(base + SAMPLES, samples);
+        counters.lazySet(base + DISTINCT, distinct);
+    }
+
+    public String[] getRoles() {
+        return roles;
+    }
+
+    /**
+     * @param role role index
+     * @return share of idle spins in the role loop iterations; NaN if role made no iterations yet
+     */
+    public double getSpinRatio(int role) {
+        int base = (role + 1) * STRIDE;
+        long spins = counters.get(base + SPINS);
+        long work = counters.get(base + WORK);
+        return (spins + work == 0) ? Double.NaN : (double) spins / (spins + work);
+    }
+
+    public long getSamples() {
+        return counters.get(roles.length * STRIDE + SAMPLES);
+    }
+
+    public long getDistinct() {
+        return counters.get(roles.length * STRIDE + DISTINCT);
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+/**
+ * Shared state for {@link OneActorOneObserverEngine}.
+ *
+ * The state is accessed through the accessors, so that the memory layout can be switched
+ * without touching the engines. Within a single run, only one layout is ever used, and the
+ * accessors are inlined.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public abstract class SingleSharedStateHolder<S> {
+
+    /**
+     * Creates the holder.
+     *
+     * Ordered holders publish with release-only stores (lazySet), and read with volatile loads,
+     * which are acquire loads. This is enough for newState() to happen-before the role calls,
+     * but drops the trailing StoreLoad fence of the volatile store off the publisher's path.
+     *
+     * @param padded whether to isolate the shared fields in their own cache lines
+     * @param ordered whether to publish with release-only stores
+     * @param <S> test state object type
+     * @return holder
+     */
+    public static <S> SingleSharedStateHolder<S> create(boolean padded, boolean ordered) {
+        if (ordered) {
+            return padded ? new PaddedSingleSharedStateHolder.Ordered<S>() : new UnpaddedSingleSharedStateHolder.Ordered<S>();
+        } else {
+            return padded ? new PaddedSingleSharedStateHolder<S>() : new UnpaddedSingleSharedStateHolder<S>();
+        }
+    }
+
+    public abstract boolean isStopped();
+
+    public abstract void stop();
+
+    public abstract S[] getCurrent();
+
+    public abstract void setCurrent(S[] current);
+
+    /**
+     * Last publication stamp, or null if latencies are not recorded.
+     * The stamp is written before the current state, and read after it; it shares the
+     * cache line with the current state in padded layout.
+     */
+    public abstract Stamp getStamp();
+
+    public abstract void setStamp(Stamp stamp);
+
+}
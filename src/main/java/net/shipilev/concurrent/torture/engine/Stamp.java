@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+/**
+ * Publication time of the shared state, to measure the handoff latencies with.
+ *
+ * Only every $latencySampling-th publication is stamped, to keep the clock off the injector's
+ * hot path. The stamp names the state it was taken for: the reader which is still picking up
+ * the older state while the newer one is already stamped, should not take the newer time
+ * for its own.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public final class Stamp {
+
+    private final Object state;
+    private final long time;
+
+    public Stamp(Object state, long time) {
+        this.state = state;
+        this.time = time;
+    }
+
+    /**
+     * @param state state picked up by the reader
+     * @return true, if this stamp was taken for that state
+     */
+    public boolean isFor(Object state) {
+        return this.state == state;
+    }
+
+    /**
+     * @return publication time, in {@link System#nanoTime()} units
+     */
+    public long getTime() {
+        return time;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import net.shipilev.concurrent.torture.Runner;
+import net.shipilev.concurrent.torture.tests.TwoActorsOneArbiterTest;
+import net.shipilev.concurrent.torture.util.LatencyHistogram;
+import net.shipilev.concurrent.torture.util.XorShift;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Role loops for {@link TwoActorsOneArbiterTest}.
+ *
+ * This class is also the template for per-test engines produced by {@link EngineGenerator}.
+ * Role methods are copied into the generated subclass verbatim, hence they should only touch
+ * public or protected members, and should not declare inner classes.
+ *
+ * All the state shared between the roles is in the holder. Role-local state lives
+ * in the role methods, and is allocated by the role thread itself, away from the shared lines.
+ * Latency histograms are role-local as well, and are handed over to the engine once the role exits.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class TwoActorsOneArbiterEngine<S> {
+
+    public static final String[] ROLES = {"injector", "actor1", "actor2", "arbiter"};
+
+    protected static final int INJECTOR = 0;
+    protected static final int ACTOR1 = 1;
+    protected static final int ACTOR2 = 2;
+    protected static final int ARBITER = 3;
+
+    protected final TwoActorsOneArbiterTest<S> test;
+    protected final TwoSharedStateHolder<S> holder;
+    protected final int loops;
+    protected final boolean shouldYield;
+    protected final long seed;
+    protected final int[] actor1Delays;
+    protected final int[] actor2Delays;
+    protected final Progress progress;
+    protected final int latencySampling;
+    protected LatencyHistogram actor1Latency;
+    protected LatencyHistogram actor2Latency;
+    protected LatencyHistogram arbiterLatency;
+
+    public TwoActorsOneArbiterEngine(TwoActorsOneArbiterTest<S> test, int loops, boolean shouldYield, boolean padded, boolean ordered, long seed, Delays delays, int latencySampling) {
+        this.test = test;
+        this.loops = loops;
+        this.shouldYield = shouldYield;
+        this.seed = seed;
+        this.actor1Delays = delays.table(XorShift.seed(seed, 3));
+        this.actor2Delays = delays.table(XorShift.seed(seed, 4));
+        this.holder = TwoSharedStateHolder.create(padded, ordered);
+        this.progress = new Progress(ROLES);
+        this.latencySampling = latencySampling;
+
+        // need to initialize so that actor thread will not NPE.
+        // once injector catches up, it will push fresh state objects
+        holder.setCurrent(test.newState());
+    }
+
+    public void stop() {
+        holder.stop();
+    }
+
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Answers the handoff latencies. Should be called after all the roles have exited.
+     *
+     * @return transition name -> latency histogram
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        Map<String, LatencyHistogram> result = new LinkedHashMap<String, LatencyHistogram>();
+        if (actor1Latency != null) {
+            result.put("injector->actor1", actor1Latency);
+        }
+        if (actor2Latency != null) {
+            result.put("injector->actor2", actor2Latency);
+        }
+        if (arbiterLatency != null) {
+            result.put("actors->arbiter", arbiterLatency);
+        }
+        return result;
+    }
+
+    /**
+     * Injector: injects new states until stopped.
+     * There are an additional constraints:
+     *   a. If actors results are not yet consumed, do not push the new state.
+     *      This will effectively block actors from working until arbiter consumes their result.
+     *   b. Progress is published once in a while, since the states are injected one by one
+     *   c. Every $latencySampling-th state is stamped with its publication time when latencies are recorded
+     */
+    public void injector() {
+        long idle = 0;
+        long work = 0;
+        int unstamped = 0;
+
+        while (!holder.isStopped()) {
+            while (holder.getT1() != null && holder.getT2() != null && !holder.isStopped()) {
+                if ((++idle & Progress.SPIN_PUBLISH_MASK) == 0) progress.publish(INJECTOR, idle, work);
+                if (shouldYield) Thread.yield();
+            }
+            S state = test.newState();
+            if (latencySampling > 0 && ++unstamped >= latencySampling) {
+                unstamped = 0;
+                holder.setStamp(new Stamp(state, System.nanoTime()));
+            }
+            holder.setCurrent(state);
+            if ((++work & Progress.SPIN_PUBLISH_MASK) == 0) progress.publish(INJECTOR, idle, work);
+        }
+        progress.publish(INJECTOR, idle, work);
+    }
+
+    /**
+     * Actor 1.
+     * The rationale for its loop is as follows:
+     *   a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
+     *   b. Thread should not observe the state object more than once
+     *   c. Once thread is done with its work, it publishes the reference to state object for arbiter
+     *   d. Optional delays shift the phase against the other actor; spin results are summed up to keep the spins alive
+     *   e. Progress is published once per $LOOPS
+     *   f. States stamped by the injector record the time they waited to be picked up
+     */
+    public void actor1() {
+        LatencyHistogram latency = new LatencyHistogram();
+        S last = null;
+        int[] delays = actor1Delays;
+        long rnd = XorShift.seed(seed, 1);
+        int sink = 0;
+        long idle = 0;
+        long work = 0;
+
+        while (!holder.isStopped()) {
+            int l = 0;
+            while (l < loops) {
+                S cur = holder.getCurrent();
+                if (last != cur) {
+                    if (latencySampling > 0) {
+                        Stamp stamp = holder.getStamp();
+                        if (stamp != null && stamp.isFor(cur)) {
+                            latency.record(System.nanoTime() - stamp.getTime());
+                        }
+                    }
+                    if (delays != null) {
+                        rnd = XorShift.next(rnd);
+                        sink += Delays.spin(delays[(int) rnd & (Delays.TABLE_SIZE - 1)]);
+                    }
+                    test.actor1(cur);
+                    holder.setT1(cur);
+                    last = cur;
+                    work++;
+                } else {
+                    idle++;
+                    if (shouldYield) Thread.yield();
+                }
+                l++;
+            }
+            progress.publish(ACTOR1, idle, work);
+        }
+        Delays.consume(sink);
+        actor1Latency = latency;
+    }
+
+    /**
+     * Actor 2.
+     * The rationale for its loop is as follows:
+     *   a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
+     *   b. Thread should not observe the state object more than once
+     *   c. Once thread is done with its work, it publishes the reference to state object for arbiter
+     *   d. Optional delays shift the phase against the other actor; spin results are summed up to keep the spins alive
+     *   e. Progress is published once per $LOOPS
+     *   f. States stamped by the injector record the time they waited to be picked up
+     */
+    public void actor2() {
+        LatencyHistogram latency = new LatencyHistogram();
+        S last = null;
+        int[] delays = actor2Delays;
+        long rnd = XorShift.seed(seed, 2);
+        int sink = 0;
+        long idle = 0;
+        long work = 0;
+        while (!holder.isStopped()) {
+            int l = 0;
+            while (l < loops) {
+                S cur = holder.getCurrent();
+                if (last != cur) {
+                    if (latencySampling > 0) {
+                        Stamp stamp = holder.getStamp();
+                        if (stamp != null && stamp.isFor(cur)) {
+                            latency.record(System.nanoTime() - stamp.getTime());
+                        }
+                    }
+                    if (delays != null) {
+                        rnd = XorShift.next(rnd);
+                        sink += Delays.spin(delays[(int) rnd & (Delays.TABLE_SIZE - 1)]);
+                    }
+                    test.actor2(cur);
+                    last = cur;
+                    holder.setT2(cur);
+                    work++;
+                } else {
+                    idle++;
+                    if (shouldYield) Thread.yield();
+                }
+                l++;
+            }
+            progress.publish(ACTOR2, idle, work);
+        }
+        Delays.consume(sink);
+        actor2Latency = latency;
+    }
+
+    /**
+     * Arbiter.
+     * The rationale for its loop is as follows:
+     *   a. We should be easy on checking the interrupted status, hence we do $LOOPS internally
+     *   b. Thread should not observe the state object more than once
+     *   c. The overhead of doing the work inside the inner loop should be small
+     *   d. $state is getting reused, so we end up marshalling it to long to count properly
+     *   e. Arbiter waits until both actors have finished their work and published their results
+     *   f. Progress is published once per $LOOPS
+     *   g. Every $latencySampling-th result pair records how long the arbiter waited for it
+     *
+     * @return arbitrated states
+     */
+    public Multiset<Long> arbiter() {
+        byte[] res = new byte[8];
+
+        Multiset<Long> set = HashMultiset.create();
+
+        byte[][] results = new byte[loops][];
+        LatencyHistogram latency = new LatencyHistogram();
+        boolean armed = false;
+        long waitStart = 0;
+        int unsampled = 0;
+        long idle = 0;
+        long work = 0;
+
+        while (!holder.isStopped()) {
+            int c = 0;
+            int l = 0;
+            while (l < loops) {
+                S s1 = holder.getT1();
+                S s2 = holder.getT2();
+                if (s1 == s2 && s1 != null) {
+                    if (armed) {
+                        latency.record(waitStart == 0 ? 0 : System.nanoTime() - waitStart);
+                        waitStart = 0;
+                    }
+                    armed = latencySampling > 0 && ++unsampled >= latencySampling;
+                    if (armed) {
+                        unsampled = 0;
+                    }
+                    test.arbitrate(s1, res);
+                    results[c] = new byte[8];
+                    System.arraycopy(res, 0, results[c], 0, 8);
+                    c++;
+                    holder.setT1(null);
+                    holder.setT2(null);
+                    work++;
+                } else {
+                    if (armed && waitStart == 0) {
+                        waitStart = System.nanoTime();
+                    }
+                    idle++;
+                    if (shouldYield) Thread.yield();
+                }
+                l++;
+            }
+
+            for (int i = 0; i < c; i++) {
+                set.add(Runner.byteArrToLong(results[i]));
+            }
+
+            progress.publish(ARBITER, idle, work);
+            progress.publishSamples(set.size(), set.elementSet().size());
+        }
+        arbiterLatency = latency;
+        return set;
+    }
+
+}
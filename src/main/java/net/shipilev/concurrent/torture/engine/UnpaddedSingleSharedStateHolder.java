@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.engine;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Shared state with the default VM layout.
+ * Fields can share the cache lines with each other, and with unrelated objects.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public final class UnpaddedSingleSharedStateHolder<S> extends SingleSharedStateHolder<S> {
+    private volatile boolean isStopped;
+    volatile S[] current;
+    private Stamp stamp;
+
+    @Override
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    @Override
+    public void stop() {
+        isStopped = true;
+    }
+
+    @Override
+    public S[] getCurrent() {
+        return current;
+    }
+
+    @Override
+    public void setCurrent(S[] current) {
+        this.current = current;
+    }
+
+    @Override
+    public Stamp getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public void setStamp(Stamp stamp) {
+        this.stamp = stamp;
+    }
+    /**
+     * Default layout with release-only stores.
+     * The class owns the fields it stores to, and is final: on JDK 8, field updaters only take
+     * their fast path on the instances of the very class which declares the field.
+     *
+     * @param <S> test state object type
+     */
+    static final class Ordered<S> extends SingleSharedStateHolder<S> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Ordered, Object[]> CURRENT =
+                AtomicReferenceFieldUpdater.newUpdater(Ordered.class, Object[].class, "current");
+
+        private volatile boolean isStopped;
+        volatile S[] current;
+        private Stamp stamp;
+
+        @Override
+        public boolean isStopped() {
+            return isStopped;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public S[] getCurrent() {
+            return current;
+        }
+
+        @Override
+        public void setCurrent(S[] current) {
+            CURRENT.lazySet(this, current);
+        }
+
+        @Override
+        public Stamp getStamp() {
+            return stamp;
+        }
+
+        @Override
+        public void setStamp(Stamp stamp) {
+            this.stamp = stamp;
+        }
+
+    }
+
+}
+
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.engine;
+
+import net.shipilev.concurrent.torture.Runner;
+import net.shipilev.concurrent.torture.tests.OneActorOneObserverTest;
+import net.shipilev.concurrent.torture.util.XorShift;
+
+/**
+ * Role loops profiling the race window for {@link OneActorOneObserverTest}.
+ *
+ * Actor and observer handle the states one by one. For every state, actor picks the random offset
+ * within the swept range, and both threads spin until the common deadline, shifted by the offset
+ * for observer. The offset actually achieved is measured, and the outcome is attributed to it,
+ * since the threads rarely hit their deadlines exactly.
+ *
+ * @param <S> test state object type
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class WindowEngine<S> {
+
+    /**
+     * Time given to observer to pick up the state before the earliest deadline, ns.
+     */
+    private static final long LEAD = 10000;
+
+    private final OneActorOneObserverTest<S> test;
+    private final long maxOffset;
+    private final boolean shouldYield;
+    private final long seed;
+    private final WindowProfile profile;
+
+    private volatile boolean isStopped;
+
+    // actor -> observer
+    private volatile S state;
+    private volatile long deadline;
+    private volatile int posted;
+
+    // observer -> actor
+    private volatile long observedAt;
+    private volatile long observed;
+    private volatile int done;
+
+    public WindowEngine(OneActorOneObserverTest<S> test, long maxOffset, boolean shouldYield, long seed) {
+        this.test = test;
+        this.maxOffset = maxOffset;
+        this.shouldYield = shouldYield;
+        this.seed = seed;
+        this.profile = new WindowProfile(maxOffset);
+    }
+
+    public void stop() {
+        isStopped = true;
+    }
+
+    /**
+     * Actor: publishes the states with deadlines, and collects the profile.
+     * Actor acts on the common deadline, observer acts on the deadline shifted by random offset.
+     */
+    public void actor() {
+        long rnd = XorShift.seed(seed, 1);
+        int seq = 0;
+
+        while (!isStopped) {
+            S s = test.newState();
+
+            rnd = XorShift.next(rnd);
+            long offset = (long) ((2 * ((rnd >>> 11) * 0x1.0p-53) - 1) * maxOffset);
+            long start = System.nanoTime() + LEAD + maxOffset;
+
+            state = s;
+            deadline = start + offset;
+            posted = ++seq;
+
+            while (System.nanoTime() < start) {
+                if (shouldYield) Thread.yield();
+            }
+            long actedAt = System.nanoTime();
+            test.actor1(s);
+
+            while (done != seq) {
+                if (isStopped) {
+                    return;
+                }
+                if (shouldYield) Thread.yield();
+            }
+            profile.add(observedAt - actedAt, observed);
+        }
+    }
+
+    /**
+     * Observer: observes every published state on its deadline.
+     */
+    public void observer() {
+        byte[] buf = new byte[8];
+        int seen = 0;
+
+        while (!isStopped) {
+            int seq = posted;
+            if (seq == seen) {
+                if (shouldYield) Thread.yield();
+                continue;
+            }
+
+            S s = state;
+            long at = deadline;
+            while (System.nanoTime() < at) {
+                if (shouldYield) Thread.yield();
+            }
+            long t = System.nanoTime();
+            test.observe(s, buf);
+
+            observed = Runner.byteArrToLong(buf);
+            observedAt = t;
+            done = seq;
+            seen = seq;
+        }
+    }
+
+    /**
+     * @return collected profile; only valid once roles are finished
+     */
+    public WindowProfile getProfile() {
+        return profile;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.engine;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome distributions over the observer offsets relative to actor, as measured by {@link WindowEngine}.
+ *
+ * The swept range is split into equal buckets. Samples which fell outside the swept range are
+ * only counted in the total.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class WindowProfile {
+
+    public static final int BUCKETS = 20;
+
+    private final long maxOffset;
+    private final List<Multiset<Long>> buckets;
+    private final Multiset<Long> states;
+
+    public WindowProfile(long maxOffset) {
+        this.maxOffset = maxOffset;
+        this.buckets = new ArrayList<Multiset<Long>>();
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets.add(HashMultiset.<Long>create());
+        }
+        this.states = HashMultiset.create();
+    }
+
+    /**
+     * Records the sample.
+     *
+     * @param offset observer time minus actor time, ns
+     * @param state observed state
+     */
+    public void add(long offset, long state) {
+        states.add(state);
+        if (-maxOffset <= offset && offset < maxOffset) {
+            int b = (int) ((offset + maxOffset) * BUCKETS / (2 * maxOffset));
+            buckets.get(b).add(state);
+        }
+    }
+
+    public int size() {
+        return BUCKETS;
+    }
+
+    /**
+     * @param b bucket
+     * @return lower bound of the bucket, inclusive, ns
+     */
+    public long getFrom(int b) {
+        return -maxOffset + 2 * maxOffset * b / BUCKETS;
+    }
+
+    /**
+     * @param b bucket
+     * @return upper bound of the bucket, exclusive, ns
+     */
+    public long getTo(int b) {
+        return -maxOffset + 2 * maxOffset * (b + 1) / BUCKETS;
+    }
+
+    public Multiset<Long> getBucket(int b) {
+        return buckets.get(b);
+    }
+
+    /**
+     * @return all observed states, including the samples outside the swept range
+     */
+    public Multiset<Long> getStates() {
+        return states;
+    }
+
+}
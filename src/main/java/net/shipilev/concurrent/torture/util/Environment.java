@@ -1,5 +1,6 @@
 package net.shipilev.concurrent.torture.util;
 
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,6 +11,7 @@ public class Environment {
 
         String[] keys = new String[] {
                 "java.version",
+                "java.home",
                 "java.vendor",
                 "java.vm.version",
                 "java.vm.vendor",
@@ -26,6 +28,15 @@ public class Environment {
             result.put(key, System.getProperty(key));
         }
 
+        StringBuilder jvmArgs = new StringBuilder();
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (jvmArgs.length() > 0) {
+                jvmArgs.append(' ');
+            }
+            jvmArgs.append(arg);
+        }
+        result.put("jvm.args", jvmArgs.toString());
+
         return result;
     }
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.util;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Class loader which loads its own copies of harness and test classes,
+ * and delegates everything else to the parent, along with the shared harness classes.
+ *
+ * Classes loaded through the fresh instance of this loader do not share the JIT profiles
+ * and compiled code with their counterparts in other loaders.
+ */
+public class IsolatingClassLoader extends ClassLoader {
+
+    private static final String PREFIX = "net.shipilev.concurrent.torture.";
+
+    private final Set<String> shared;
+
+    /**
+     * @param parent parent class loader
+     * @param shared harness classes to delegate to the parent, to pass their instances across
+     */
+    public IsolatingClassLoader(ClassLoader parent, String... shared) {
+        super(parent);
+        this.shared = new HashSet<String>(Arrays.asList(shared));
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.startsWith(PREFIX) || shared.contains(name)) {
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> k = findLoadedClass(name);
+        if (k == null) {
+            k = findClass(name);
+        }
+        if (resolve) {
+            resolveClass(k);
+        }
+        return k;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        InputStream is = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+        if (is == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        try {
+            byte[] bytes = ByteStreams.toByteArray(is);
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.util;
+
+/**
+ * Fixed-memory histogram of latencies.
+ *
+ * Buckets are logarithmic: every power of two is split into equal sub-buckets, which bounds
+ * the relative error of reported values by 1/{@link #SUB_BUCKETS}. Recording only increments
+ * the array slot, so the histogram is cheap enough to be updated from the role loops.
+ * Histogram is not thread-safe, every role should record into its own.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Records the latency.
+     *
+     * @param ns latency, ns; negative values are recorded as zero
+     */
+    public void record(long ns) {
+        if (ns < 0) {
+            ns = 0;
+        }
+        counts[index(ns)]++;
+        count++;
+        if (ns > max) {
+            max = ns;
+        }
+    }
+
+    /**
+     * Adds all the latencies recorded by other histogram.
+     *
+     * @param other histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return max recorded latency, ns
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Answers the latency percentile.
+     *
+     * @param p percentile, (0; 1]
+     * @return upper bound of the bucket the percentile falls into, ns; 0 if nothing was recorded
+     */
+    public long getPercentile(double p) {
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(max, lowerBound(i + 1) - 1);
+            }
+        }
+        return max;
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BITS;
+        int sub = (int) (v >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        int sub = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub)) << shift;
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drains the output of forked VMs.
+ *
+ * Single pump thread serves all the forks: it polls every stream for the available bytes,
+ * copies them into the fork log, and echoes the complete lines to the console, prefixed with
+ * the fork name. Every line is printed with a single call, so that lines of the concurrently
+ * running forks do not interleave. Process pipes are not selectable, hence polling; the pump
+ * backs off while all the streams are idle.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class OutputPump {
+
+    private static final int BUF_SIZE = 64 * 1024;
+    private static final int MAX_BACKOFF_MS = 10;
+
+    private final List<Stream> streams = new ArrayList<Stream>();
+    private final byte[] buf = new byte[BUF_SIZE];
+    private Thread thread;
+
+    /**
+     * Starts draining the fork output.
+     *
+     * @param p forked process
+     * @param prefix prefix for console lines
+     * @param log file to copy the complete output to
+     * @return latch, released when both streams are drained and the log is closed
+     * @throws IOException if log can not be opened
+     */
+    public CountDownLatch attach(Process p, String prefix, File log) throws IOException {
+        log.getParentFile().mkdirs();
+        Log l = new Log(new BufferedOutputStream(new FileOutputStream(log), BUF_SIZE));
+
+        synchronized (streams) {
+            streams.add(new Stream(p, p.getInputStream(), System.out, prefix, l));
+            streams.add(new Stream(p, p.getErrorStream(), System.err, prefix, l));
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        pump();
+                    }
+                }, "output-pump");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return l.done;
+    }
+
+    private void pump() {
+        int backoff = 0;
+        while (true) {
+            List<Stream> current;
+            synchronized (streams) {
+                current = new ArrayList<Stream>(streams);
+            }
+
+            boolean progress = false;
+            for (Stream s : current) {
+                if (s.poll(buf)) {
+                    progress = true;
+                }
+                if (s.isClosed()) {
+                    synchronized (streams) {
+                        streams.remove(s);
+                    }
+                }
+            }
+
+            if (progress) {
+                backoff = 0;
+            } else {
+                backoff = Math.min(MAX_BACKOFF_MS, backoff + 1);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Log shared by both streams of the fork.
+     */
+    private static class Log {
+        private final OutputStream out;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int open = 2;
+
+        Log(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] b, int off, int len) {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                // log is best-effort, console still has the output
+            }
+        }
+
+        void close() {
+            if (--open == 0) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+                done.countDown();
+            }
+        }
+    }
+
+    private static class Stream {
+        private final Process process;
+        private final InputStream in;
+        private final PrintStream console;
+        private final String prefix;
+        private final Log log;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean closed;
+
+        Stream(Process process, InputStream in, PrintStream console, String prefix, Log log) {
+            this.process = process;
+            this.in = in;
+            this.console = console;
+            this.prefix = prefix;
+            this.log = log;
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Reads the available bytes without blocking; once the process has exited, reads until EOF.
+         *
+         * @return true, if anything was read
+         */
+        boolean poll(byte[] buf) {
+            try {
+                boolean exited = hasExited();
+                int avail = in.available();
+                if (avail == 0 && !exited) {
+                    return false;
+                }
+
+                int read = in.read(buf, 0, exited ? buf.length : Math.min(avail, buf.length));
+                if (read < 0) {
+                    close();
+                    return false;
+                }
+
+                log.write(buf, 0, read);
+                for (int i = 0; i < read; i++) {
+                    if (buf[i] == '\n') {
+                        console.println(prefix + line.toString());
+                        line.reset();
+                    } else if (buf[i] != '\r') {
+                        line.write(buf[i]);
+                    }
+                }
+                return read > 0;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+
+        private boolean hasExited() {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                return false;
+            }
+        }
+
+        private void close() {
+            if (line.size() > 0) {
+                console.println(prefix + line.toString());
+                line.reset();
+            }
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            closed = true;
+            log.close();
+        }
+    }
+
+}
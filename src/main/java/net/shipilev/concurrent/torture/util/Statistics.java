@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.shipilev.concurrent.torture.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Basic statistics over the histograms of observed states.
+ */
+public class Statistics {
+
+    /**
+     * Minimal expected count for the category to participate in chi-square test on its own.
+     * Rarer categories are pooled together, otherwise the approximation breaks down.
+     */
+    private static final double MIN_EXPECTED = 5.0;
+
+    /**
+     * Pearson's chi-square test of homogeneity for two histograms.
+     *
+     * @param a first histogram
+     * @param b second histogram
+     * @param <K> category type
+     * @return test result
+     */
+    public static <K> ChiSquare homogeneity(Map<K, Long> a, Map<K, Long> b) {
+        long totalA = sum(a);
+        long totalB = sum(b);
+        long total = totalA + totalB;
+
+        if (totalA == 0 || totalB == 0) {
+            return new ChiSquare(0, 0, total);
+        }
+
+        Set<K> keys = new HashSet<K>();
+        keys.addAll(a.keySet());
+        keys.addAll(b.keySet());
+
+        List<long[]> rows = new ArrayList<long[]>();
+        long[] pooled = new long[2];
+        for (K k : keys) {
+            long ca = get(a, k);
+            long cb = get(b, k);
+            double row = ca + cb;
+            if (row * totalA / total < MIN_EXPECTED || row * totalB / total < MIN_EXPECTED) {
+                pooled[0] += ca;
+                pooled[1] += cb;
+            } else {
+                rows.add(new long[]{ca, cb});
+            }
+        }
+        if (pooled[0] + pooled[1] > 0) {
+            rows.add(pooled);
+        }
+
+        if (rows.size() < 2) {
+            return new ChiSquare(0, 0, total);
+        }
+
+        double chi = 0;
+        for (long[] r : rows) {
+            double row = r[0] + r[1];
+            double ea = row * totalA / total;
+            double eb = row * totalB / total;
+            chi += (r[0] - ea) * (r[0] - ea) / ea;
+            chi += (r[1] - eb) * (r[1] - eb) / eb;
+        }
+
+        return new ChiSquare(chi, rows.size() - 1, total);
+    }
+
+    /**
+     * Welch's t-test for the means of two samples with possibly unequal variances.
+     *
+     * @param a first sample
+     * @param b second sample
+     * @return test result; insignificant if either sample has less than two elements
+     */
+    public static TTest welch(double[] a, double[] b) {
+        if (a.length < 2 || b.length < 2) {
+            return new TTest(0, 0);
+        }
+        double va = variance(a) / a.length;
+        double vb = variance(b) / b.length;
+        double diff = mean(b) - mean(a);
+        if (va + vb == 0) {
+            return new TTest(diff == 0 ? 0 : Double.POSITIVE_INFINITY, a.length + b.length - 2);
+        }
+        double t = diff / Math.sqrt(va + vb);
+        double freedom = (va + vb) * (va + vb) / (va * va / (a.length - 1) + vb * vb / (b.length - 1));
+        return new TTest(t, freedom);
+    }
+
+    /**
+     * Approximates the quantile of Student's t-distribution (Cornish-Fisher expansion).
+     *
+     * @param p probability, 0 < p < 1
+     * @param freedom degrees of freedom
+     * @return quantile
+     */
+    public static double studentQuantile(double p, double freedom) {
+        double z = normalQuantile(p);
+        double z3 = z * z * z;
+        double z5 = z3 * z * z;
+        double z7 = z5 * z * z;
+        return z
+                + (z3 + z) / (4 * freedom)
+                + (5 * z5 + 16 * z3 + 3 * z) / (96 * freedom * freedom)
+                + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * freedom * freedom * freedom);
+    }
+
+    /**
+     * Approximates the critical value of chi-square distribution (Wilson-Hilferty).
+     *
+     * @param freedom degrees of freedom
+     * @param alpha significance level
+     * @return critical value
+     */
+    public static double chiSquareCritical(int freedom, double alpha) {
+        double z = normalQuantile(1 - alpha);
+        double k = freedom;
+        double t = 1 - 2 / (9 * k) + z * Math.sqrt(2 / (9 * k));
+        return k * t * t * t;
+    }
+
+    /**
+     * Approximates the quantile of standard normal distribution (Abramowitz and Stegun, 26.2.23).
+     *
+     * @param p probability, 0 < p < 1
+     * @return quantile
+     */
+    public static double normalQuantile(double p) {
+        if (p <= 0 || p >= 1) {
+            throw new IllegalArgumentException("Probability should be in (0, 1): " + p);
+        }
+        if (p < 0.5) {
+            return -normalQuantile(1 - p);
+        }
+        double t = Math.sqrt(-2 * Math.log(1 - p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+    public static <K> long sum(Map<K, Long> h) {
+        long s = 0;
+        for (Long v : h.values()) {
+            s += v;
+        }
+        return s;
+    }
+
+    public static double mean(double[] xs) {
+        double s = 0;
+        for (double x : xs) {
+            s += x;
+        }
+        return s / xs.length;
+    }
+
+    /**
+     * @param xs sample, at least two elements
+     * @return unbiased sample variance
+     */
+    public static double variance(double[] xs) {
+        double m = mean(xs);
+        double s = 0;
+        for (double x : xs) {
+            s += (x - m) * (x - m);
+        }
+        return s / (xs.length - 1);
+    }
+
+    private static <K> long get(Map<K, Long> h, K k) {
+        Long v = h.get(k);
+        return (v == null) ? 0 : v;
+    }
+
+    public static class ChiSquare {
+        private final double statistic;
+        private final int freedom;
+        private final long total;
+
+        public ChiSquare(double statistic, int freedom, long total) {
+            this.statistic = statistic;
+            this.freedom = freedom;
+            this.total = total;
+        }
+
+        public double getStatistic() {
+            return statistic;
+        }
+
+        public int getFreedom() {
+            return freedom;
+        }
+
+        /**
+         * Effect size; for two histograms, this is sqrt(chi^2 / N).
+         * @return Cramer's V
+         */
+        public double getCramerV() {
+            return (total == 0) ? 0 : Math.sqrt(statistic / total);
+        }
+
+        public boolean isSignificant(double alpha) {
+            return freedom > 0 && statistic > chiSquareCritical(freedom, alpha);
+        }
+    }
+
+    public static class TTest {
+        private final double statistic;
+        private final double freedom;
+
+        public TTest(double statistic, double freedom) {
+            this.statistic = statistic;
+            this.freedom = freedom;
+        }
+
+        public double getStatistic() {
+            return statistic;
+        }
+
+        public double getFreedom() {
+            return freedom;
+        }
+
+        /**
+         * @param alpha significance level, two-sided
+         * @return true, if means differ significantly
+         */
+        public boolean isSignificant(double alpha) {
+            return freedom > 0 && Math.abs(statistic) > studentQuantile(1 - alpha / 2, freedom);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Date;
+
+/**
+ * Captures thread dumps of the hung tests.
+ *
+ * The harness VM dumps its own threads via {@link ThreadMXBean}. The forked VM is asked to dump
+ * its threads with SIGQUIT, which makes it print the dump into its own stdout, and hence into
+ * the fork log.
+ *
+ * @author Aleksey Shipilev (aleksey.shipilev@oracle.com)
+ */
+public class ThreadDumps {
+
+    /**
+     * Writes the dump of all threads in this VM.
+     * Unlike {@link ThreadInfo#toString()}, prints the complete stacks.
+     *
+     * @param file file to write to
+     * @throws IOException if file can not be written
+     */
+    public static void write(File file) throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        ThreadInfo[] infos = bean.dumpAllThreads(bean.isObjectMonitorUsageSupported(), bean.isSynchronizerUsageSupported());
+        long[] deadlocked = bean.isSynchronizerUsageSupported() ? bean.findDeadlockedThreads() : bean.findMonitorDeadlockedThreads();
+
+        file.getParentFile().mkdirs();
+        PrintWriter pw = new PrintWriter(file);
+        try {
+            pw.println("Thread dump at " + new Date());
+            if (deadlocked != null) {
+                pw.println("Found " + deadlocked.length + " deadlocked threads");
+            }
+            pw.println();
+
+            for (ThreadInfo ti : infos) {
+                if (ti != null) {
+                    print(pw, ti);
+                }
+            }
+        } finally {
+            pw.close();
+        }
+        if (pw.checkError()) {
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    private static void print(PrintWriter pw, ThreadInfo ti) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('"').append(ti.getThreadName()).append("\" Id=").append(ti.getThreadId()).append(' ').append(ti.getThreadState());
+        if (ti.getLockName() != null) {
+            sb.append(" on ").append(ti.getLockName());
+        }
+        if (ti.getLockOwnerName() != null) {
+            sb.append(" owned by \"").append(ti.getLockOwnerName()).append("\" Id=").append(ti.getLockOwnerId());
+        }
+        pw.println(sb);
+
+        StackTraceElement[] stack = ti.getStackTrace();
+        MonitorInfo[] monitors = ti.getLockedMonitors();
+        for (int i = 0; i < stack.length; i++) {
+            pw.println("\tat " + stack[i]);
+            for (MonitorInfo mi : monitors) {
+                if (mi.getLockedStackDepth() == i) {
+                    pw.println("\t- locked " + mi);
+                }
+            }
+        }
+
+        LockInfo[] syncs = ti.getLockedSynchronizers();
+        if (syncs.length > 0) {
+            pw.println("\tLocked synchronizers:");
+            for (LockInfo li : syncs) {
+                pw.println("\t- " + li);
+            }
+        }
+        pw.println();
+    }
+
+    /**
+     * Asks the forked VM to print its thread dump.
+     * Only available on POSIX systems, where the pid of the process can be figured out.
+     *
+     * @param p process
+     * @return true, if the dump was requested
+     */
+    public static boolean request(Process p) {
+        if (System.getProperty("os.name").contains("indows")) {
+            return false;
+        }
+
+        long pid = pid(p);
+        if (pid <= 0) {
+            return false;
+        }
+
+        try {
+            return Runtime.getRuntime().exec(new String[]{"kill", "-QUIT", String.valueOf(pid)}).waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Answers the pid of the process: from Process.pid() on JDK 9+, or from the private
+     * field of the POSIX process implementation on older JDKs.
+     *
+     * @param p process
+     * @return pid; -1 if unknown
+     */
+    private static long pid(Process p) {
+        try {
+            return (Long) Process.class.getMethod("pid").invoke(p);
+        } catch (NoSuchMethodException e) {
+            // pre-JDK 9, fall through
+        } catch (IllegalAccessException e) {
+            return -1;
+        } catch (InvocationTargetException e) {
+            return -1;
+        }
+
+        try {
+            Field f = p.getClass().getDeclaredField("pid");
+            f.setAccessible(true);
+            return f.getInt(p);
+        } catch (NoSuchFieldException e) {
+            return -1;
+        } catch (IllegalAccessException e) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2012 Aleksey Shipilev
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package net.shipilev.concurrent.torture.util;
+
+/**
+ * Xorshift pseudo-random generator with externally held state.
+ *
+ * The state is a plain long the caller keeps in a local variable, so the generator
+ * is confined to the calling thread, does not allocate, and does not synchronize.
+ * The sequence is fully determined by the seed.
+ */
+public class XorShift {
+
+    private XorShift() {
+        // prevent instantiation
+    }
+
+    /**
+     * Derives the generator state from the seed and the salt.
+     * Close seeds and salts yield unrelated states.
+     *
+     * @param seed seed
+     * @param salt salt, e.g. the role or the iteration number
+     * @return generator state, never zero
+     */
+    public static long seed(long seed, long salt) {
+        // SplitMix64 finalizer
+        long z = seed + (salt + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z == 0) ? 0x9E3779B97F4A7C15L : z;
+    }
+
+    /**
+     * Advances the generator.
+     *
+     * @param state current state, non-zero
+     * @return next state, non-zero
+     */
+    public static long next(long state) {
+        state ^= state << 13;
+        state ^= state >>> 7;
+        state ^= state << 17;
+        return state;
+    }
+
+    /**
+     * Maps the generator state to the integer in [0; bound).
+     *
+     * @param state generator state
+     * @param bound upper bound, positive
+     * @return random integer
+     */
+    public static int bounded(long state, int bound) {
+        return (int) (((state >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Shuffles the array in place with Fisher-Yates.
+     *
+     * @param arr array to shuffle
+     * @param state current generator state
+     * @return next generator state
+     */
+    public static long shuffle(int[] arr, long state) {
+        for (int i = arr.length; i > 1; i--) {
+            state = next(state);
+            int i1 = i - 1;
+            int i2 = bounded(state, i);
+            int t = arr[i1];
+            arr[i1] = arr[i2];
+            arr[i2] = t;
+        }
+        return state;
+    }
+
+}